@@ -0,0 +1,113 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.jboss.aerogear.android.unifiedpush.benchmark.Allocations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fanning a message out to N background thread handlers. Only the dispatch,
+ * which starts a thread per handler, is measured; the handlers do nothing.
+ * The benchmark waits for the handlers of a message before sending the next
+ * one, so the threads of earlier iterations do not pile up. That wait is
+ * not timed, but the allocation count of the dispatching thread includes
+ * it. Allocations on the handler threads are counted up to the moment the
+ * handler is called and logged separately.
+ */
+@RunWith(Parameterized.class)
+public class NotifyHandlersBenchmark {
+
+    @Parameterized.Parameters(name = "handlers={0}")
+    public static List<Object[]> handlerCounts() {
+        return Arrays.asList(new Object[][] {{1}, {10}, {50}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int handlerCount;
+    private final List<MessageHandler> handlers = new ArrayList<>();
+    private final Bundle message = new Bundle();
+    private final Semaphore handled = new Semaphore(0);
+    private final Allocations.ThreadTally handlerThreads = new Allocations.ThreadTally();
+    private Context context;
+
+    public NotifyHandlersBenchmark(int handlerCount) {
+        this.handlerCount = handlerCount;
+    }
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        message.putString("alert", "Your order has shipped");
+        for (int i = 0; i < handlerCount; i++) {
+            MessageHandler handler = new MessageHandler() {
+                @Override
+                public void onMessage(Context context, Bundle message) {
+                    handlerThreads.add();
+                    handled.release();
+                }
+            };
+            handlers.add(handler);
+            RegistrarManager.registerBackgroundThreadHandler(handler);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (MessageHandler handler : handlers) {
+            RegistrarManager.unregisterBackgroundThreadHandler(handler);
+        }
+    }
+
+    @Test
+    public void notifyHandlers() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            RegistrarManager.notifyHandlers(context, message, null);
+            state.pauseTiming();
+            handled.acquireUninterruptibly(handlerCount);
+            state.resumeTiming();
+        }
+
+        Allocations.report("notifyHandlers[" + handlerCount + "]", new Runnable() {
+            @Override
+            public void run() {
+                RegistrarManager.notifyHandlers(context, message, null);
+                handled.acquireUninterruptibly(handlerCount);
+            }
+        }, handlerThreads);
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.benchmark;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the objects and bytes an operation allocates, which
+ * androidx.benchmark does not report. Results are logged under the
+ * "Allocations" tag so runs can be compared with logcat.
+ *
+ * The counters are per thread. Only the calling thread is counted, unless
+ * the threads the operation hands work to add theirs to a
+ * {@link ThreadTally}.
+ */
+public final class Allocations {
+
+    private static final String TAG = "Allocations";
+    private static final int ITERATIONS = 1000;
+
+    private Allocations() {
+    }
+
+    /**
+     * Runs operation on the calling thread and logs what it allocates on
+     * that thread per run on average.
+     *
+     * @param name the name the result is logged under
+     * @param operation the operation to measure
+     */
+    public static void report(String name, Runnable operation) {
+        report(name, operation, null);
+    }
+
+    /**
+     * Runs operation on the calling thread and logs what it allocates per
+     * run on average, on the calling thread and on the threads which added
+     * their counts to others.
+     *
+     * @param name the name the result is logged under
+     * @param operation the operation to measure
+     * @param others where the threads operation hands work to add their
+     *            counts, or null to count the calling thread only
+     */
+    @SuppressWarnings("deprecation")
+    public static void report(String name, Runnable operation, ThreadTally others) {
+        operation.run(); // class loading and lazy caches are not what we measure
+
+        if (others != null) {
+            others.reset();
+        }
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        String result = String.format(Locale.US, "%s: %.1f allocations, %.0f bytes per op on the calling thread", name,
+                Debug.getThreadAllocCount() / (double) ITERATIONS,
+                Debug.getThreadAllocSize() / (double) ITERATIONS);
+        if (others != null) {
+            result += String.format(Locale.US, ", %.1f allocations, %.0f bytes per op on other threads",
+                    others.count.get() / (double) ITERATIONS,
+                    others.size.get() / (double) ITERATIONS);
+        }
+        Log.i(TAG, result);
+    }
+
+    /**
+     * Collects the allocation counts of the threads an operation hands work
+     * to. Each thread calls {@link #add()} when its part is done, and must
+     * be a new thread, since the counters of a thread are never reset for
+     * it.
+     */
+    public static final class ThreadTally {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong size = new AtomicLong();
+
+        /**
+         * Adds what the calling thread allocated while counting was on.
+         */
+        @SuppressWarnings("deprecation")
+        public void add() {
+            count.addAndGet(Debug.getThreadAllocCount());
+            size.addAndGet(Debug.getThreadAllocSize());
+        }
+
+        void reset() {
+            count.set(0);
+            size.set(0);
+        }
+
+    }
+
+}
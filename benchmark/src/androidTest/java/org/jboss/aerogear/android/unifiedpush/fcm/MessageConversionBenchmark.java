@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.jboss.aerogear.android.unifiedpush.benchmark.Allocations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Turning a FCM message into the Bundle given to MessageHandlers, as done
+ * by onMessageReceived.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageConversionBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private RemoteMessage remoteMessage;
+
+    @Before
+    public void setUp() {
+        remoteMessage = new RemoteMessage.Builder("272275396485@gcm.googleapis.com")
+                .setMessageId("0:1571480000000000%abcdef")
+                .addData(UnifiedPushMessage.ALERT_KEY, "Your order has shipped")
+                .addData("sound", "default")
+                .addData(UnifiedPushMessage.PUSH_MESSAGE_ID, "f2fd6b27-1f54-4a1b-9d0e-3f0b7d7c8a11")
+                .addData("order", "12345")
+                .addData("url", "https://shop.example.com/orders/12345")
+                .build();
+    }
+
+    @Test
+    public void convertMessage() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            AeroGearUPSMessageService.toBundle(remoteMessage);
+        }
+
+        Allocations.report("convertMessage", new Runnable() {
+            @Override
+            public void run() {
+                AeroGearUPSMessageService.toBundle(remoteMessage);
+            }
+        });
+    }
+
+}
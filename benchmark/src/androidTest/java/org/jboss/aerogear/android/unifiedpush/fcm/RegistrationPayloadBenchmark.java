@@ -0,0 +1,69 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.jboss.aerogear.android.unifiedpush.benchmark.Allocations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+
+/**
+ * Building and serializing the body posted by register.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RegistrationPayloadBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private AeroGearFCMPushRegistrar registrar;
+
+    @Before
+    public void setUp() throws Exception {
+        registrar = (AeroGearFCMPushRegistrar) new AeroGearFCMPushConfiguration()
+                .setSenderId("272275396485")
+                .setVariantID("Variant")
+                .setSecret("Password")
+                .setAlias("someone@example.com")
+                .setCategories("sports", "news", "weather", "traffic", "offers")
+                .setPushServerURI(new URI("https://ups.example.com"))
+                .asRegistrar();
+    }
+
+    @Test
+    public void buildRegistrationBody() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            registrar.registrationData().toString();
+        }
+
+        Allocations.report("buildRegistrationBody", new Runnable() {
+            @Override
+            public void run() {
+                registrar.registrationData().toString();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.jboss.aerogear.android.unifiedpush.benchmark.Allocations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Parsing a saved registration record and building the body posted for a
+ * new token, as done by onNewToken for every registrar.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TokenRefreshBenchmark {
+
+    private static final String RECORD = "{\"deviceType\":\"ANDROID\",\"deviceToken\":\"old-token\","
+            + "\"alias\":\"someone@example.com\",\"operatingSystem\":\"android\",\"osVersion\":\"10\","
+            + "\"categories\":[\"sports\",\"news\",\"weather\",\"traffic\",\"offers\"],"
+            + "\"deviceRegistryURL\":\"https://ups.example.com/rest/registry/device\","
+            + "\"pushServerURL\":\"https://ups.example.com\",\"variantId\":\"Variant\",\"secret\":\"Password\","
+            + "\"requestCompressionThreshold\":-1,\"etag\":\"\\\"5d8c72a5edda8d6a\\\"\"}";
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void refreshRecord() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            refresh();
+        }
+
+        Allocations.report("refreshRecord", new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    private static String refresh() {
+        JsonObject oldPostData = new JsonParser().parse(RECORD).getAsJsonObject();
+        return AeroGearUPSMessageService.refreshedPostData(oldPostData, "new-token").toString();
+    }
+
+}
@@ -16,21 +16,39 @@
  */
 package org.jboss.aerogear.android.unifiedpush.test;
 
+import android.content.Context;
+import android.os.Bundle;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.google.android.gms.tasks.Tasks;
+
+import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.ConfigurationProvider;
+import org.jboss.aerogear.android.unifiedpush.BulkRegistrationResult;
+import org.jboss.aerogear.android.unifiedpush.MessageHandler;
+import org.jboss.aerogear.android.unifiedpush.MessageHandlerStats;
 import org.jboss.aerogear.android.unifiedpush.PushConfiguration;
 import org.jboss.aerogear.android.unifiedpush.PushRegistrar;
 import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
+import org.jboss.aerogear.android.unifiedpush.SlowMessageHandlerListener;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.fcm.UnifiedPushMessage;
+import org.jboss.aerogear.android.unifiedpush.metrics.DeliveryLatencyMetricsMessage;
+import org.jboss.aerogear.android.unifiedpush.metrics.MetricsSender;
+import org.jboss.aerogear.android.unifiedpush.test.util.UnitTestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static androidx.test.platform.app.InstrumentationRegistry.getContext;
 import static org.mockito.Mockito.mock;
 
 @RunWith(AndroidJUnit4.class)
@@ -77,6 +95,121 @@ public class RegistrationsTest {
 
     }
 
+    @Test
+    public void testRegisterAllReportsEveryRegistrar() throws Exception {
+        RegistrarManager.registerConfigurationProvider(CallbackConfig.class, new ConfigurationProvider<CallbackConfig>() {
+
+            @Override
+            public CallbackConfig newConfiguration() {
+                return new CallbackConfig();
+            }
+        });
+
+        RegistrarManager.config(PUSH, CallbackConfig.class).setCompletes(true).asRegistrar();
+        RegistrarManager.config("hanging", CallbackConfig.class).setCompletes(false).asRegistrar();
+        RegistrarManager.config("throwing", CallbackConfig.class).setThrows(true).asRegistrar();
+        try {
+            BulkRegistrationResult result = Tasks.await(
+                    RegistrarManager.registerAll(getContext(), 1, TimeUnit.SECONDS), 10, TimeUnit.SECONDS);
+
+            Assert.assertTrue(result.getSucceeded().contains(PUSH));
+            Assert.assertTrue(result.getFailures().get("hanging") instanceof TimeoutException);
+            Assert.assertTrue(result.getFailures().get("throwing") instanceof IllegalStateException);
+            Assert.assertFalse(result.isSuccessful());
+        } finally {
+            Map<?, ?> registrars = (Map<?, ?>) UnitTestUtils.getPrivateStaticField(RegistrarManager.class, "REGISTRARS");
+            registrars.remove(PUSH);
+            registrars.remove("hanging");
+            registrars.remove("throwing");
+        }
+    }
+
+    @Test
+    public void testSlowHandlerIsFlaggedAndMeasured() throws Exception {
+        final CountDownLatch flagged = new CountDownLatch(1);
+        MessageHandler slowHandler = new MessageHandler() {
+            @Override
+            public void onMessage(Context context, Bundle message) {
+                try {
+                    flagged.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        RegistrarManager.setSlowMessageHandlerBudget(50, TimeUnit.MILLISECONDS);
+        RegistrarManager.setSlowMessageHandlerListener(new SlowMessageHandlerListener() {
+            @Override
+            public void onSlowMessageHandler(MessageHandler handler, Thread thread, long elapsedMillis) {
+                flagged.countDown();
+            }
+        });
+        RegistrarManager.registerBackgroundThreadHandler(slowHandler);
+        try {
+            RegistrarManager.notifyHandlers(getContext(), new Bundle(), null);
+            Assert.assertTrue(flagged.await(10, TimeUnit.SECONDS));
+
+            MessageHandlerStats stats = null;
+            for (int attempt = 0; attempt < 100 && (stats == null || stats.getInvocations() == 0); attempt++) {
+                Thread.sleep(10);
+                for (MessageHandlerStats handlerStats : RegistrarManager.getMessageHandlerStats()) {
+                    if (handlerStats.getHandlerName().equals(slowHandler.getClass().getName())) {
+                        stats = handlerStats;
+                    }
+                }
+            }
+            Assert.assertNotNull(stats);
+            Assert.assertEquals(1, stats.getInvocations());
+            Assert.assertEquals(1, stats.getSlowInvocations());
+            Assert.assertEquals(0, stats.getFailures());
+            Assert.assertEquals(1, stats.getLatency().getCount());
+            Assert.assertTrue(stats.getLatency().getPercentileMicros(50) >= 50000);
+        } finally {
+            RegistrarManager.unregisterBackgroundThreadHandler(slowHandler);
+            RegistrarManager.setSlowMessageHandlerListener(null);
+            RegistrarManager.setSlowMessageHandlerBudget(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDeliveryLatencyIsReportedInBatches() throws Exception {
+        final CountDownLatch reported = new CountDownLatch(1);
+        final DeliveryLatencyMetricsMessage[] report = new DeliveryLatencyMetricsMessage[1];
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void onMessage(Context context, Bundle message) {
+            }
+        };
+        long deprioritized = RegistrarManager.getDeliveryLatencyStats().getDeprioritized();
+
+        RegistrarManager.setDeliveryLatencyReporter(new MetricsSender<DeliveryLatencyMetricsMessage>() {
+            @Override
+            public void sendMetrics(DeliveryLatencyMetricsMessage message, Callback<DeliveryLatencyMetricsMessage> callback) {
+                report[0] = message;
+                reported.countDown();
+            }
+        }, 2);
+        RegistrarManager.registerBackgroundThreadHandler(handler);
+        try {
+            Bundle message = new Bundle();
+            message.putLong(UnifiedPushMessage.SENT_TIME_KEY, System.currentTimeMillis() - 2000);
+            message.putInt(UnifiedPushMessage.ORIGINAL_PRIORITY_KEY, 1);
+            message.putInt(UnifiedPushMessage.PRIORITY_KEY, 2);
+            RegistrarManager.notifyHandlers(getContext(), message, null);
+            RegistrarManager.notifyHandlers(getContext(), message, null);
+
+            Assert.assertTrue(reported.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(2, report[0].getMessages());
+            Assert.assertEquals(2, report[0].getDeprioritized());
+            Assert.assertTrue(report[0].getSendToReceiveP50() >= 1500);
+            Assert.assertEquals(deprioritized + 2, RegistrarManager.getDeliveryLatencyStats().getDeprioritized());
+        } finally {
+            RegistrarManager.unregisterBackgroundThreadHandler(handler);
+            RegistrarManager.setDeliveryLatencyReporter(null, 0);
+        }
+    }
+
     private static final class BrokenConfig extends PushConfiguration<BrokenConfig> {
 
         @Override
@@ -95,4 +228,45 @@ public class RegistrationsTest {
 
     }
 
+    private static final class CallbackConfig extends PushConfiguration<CallbackConfig> {
+
+        private boolean completes;
+        private boolean throwing;
+
+        public CallbackConfig setCompletes(boolean completes) {
+            this.completes = completes;
+            return this;
+        }
+
+        public CallbackConfig setThrows(boolean throwing) {
+            this.throwing = throwing;
+            return this;
+        }
+
+        @Override
+        protected PushRegistrar buildRegistrar() {
+            final boolean completes = this.completes;
+            final boolean throwing = this.throwing;
+            return new PushRegistrar() {
+                @Override
+                public void register(Context context, Callback<Void> callback) {
+                    if (throwing) {
+                        throw new IllegalStateException("register failed before calling back");
+                    }
+                    if (completes) {
+                        callback.onSuccess(null);
+                    }
+                }
+
+                @Override
+                public void unregister(Context context, Callback<Void> callback) {
+                    if (completes) {
+                        callback.onSuccess(null);
+                    }
+                }
+            };
+        }
+
+    }
+
 }
@@ -18,7 +18,10 @@ package org.jboss.aerogear.android.unifiedpush.test.fcm;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushJsonConfiguration;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushConfigLoader;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,6 +29,7 @@ import org.junit.runner.RunWith;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getContext;
 
@@ -107,6 +111,75 @@ public class AeroGearFCMPushJsonConfigurationTest {
         }
     }
 
+    @Test
+    public void testLoaderCachesParsedFile() throws Exception {
+        JSONObject first = PushConfigLoader.load(getContext(), "correct-config.json");
+        JSONObject second = PushConfigLoader.load(getContext(), "correct-config.json");
+
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testPreloadConfigJson() throws Exception {
+        AeroGearFCMPushJsonConfiguration config = new AeroGearFCMPushJsonConfiguration();
+        config.setFileName("correct-config.json");
+
+        JSONObject preloaded = config.preloadConfigJson(getContext()).get(10, TimeUnit.SECONDS);
+        config.loadConfigJson(getContext());
+
+        Assert.assertSame(preloaded, PushConfigLoader.load(getContext(), "correct-config.json"));
+        Assert.assertEquals(pushServerURL, config.getPushServerURI());
+        Assert.assertEquals(secret, config.getSecret());
+    }
+
+    @Test
+    public void testJsonConfigUsingVariantName() {
+        AeroGearFCMPushJsonConfiguration config = new AeroGearFCMPushJsonConfiguration()
+                .setVariantName("staging");
+        config.setFileName("multi-variant-config.json");
+        config.loadConfigJson(getContext());
+
+        Assert.assertEquals(URI.create("https://staging:8080/ag-push"), config.getPushServerURI());
+        Assert.assertEquals("654321", config.getSenderId());
+        Assert.assertEquals("staging-variant", config.getVariantID());
+        Assert.assertEquals("staging-secret", config.getSecret());
+    }
+
+    @Test
+    public void testJsonConfigVariantInheritsPushServerURL() {
+        AeroGearFCMPushJsonConfiguration config = new AeroGearFCMPushJsonConfiguration()
+                .setVariantName("production");
+        config.setFileName("multi-variant-config.json");
+        config.loadConfigJson(getContext());
+
+        Assert.assertEquals(pushServerURL, config.getPushServerURI());
+        Assert.assertEquals(variantID, config.getVariantID());
+    }
+
+    @Test
+    public void testJsonConfigUsingAbsentVariant() {
+        AeroGearFCMPushJsonConfiguration config = new AeroGearFCMPushJsonConfiguration()
+                .setVariantName("blablabla");
+        config.setFileName("multi-variant-config.json");
+        try {
+            config.loadConfigJson(getContext());
+            Assert.fail("Somethings is wrong. This variant not exists and load should throw an exception");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("There is no variant named blablabla in multi-variant-config.json", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConfigVariantsReportsBrokenEntry() {
+        try {
+            RegistrarManager.configVariants(getContext(), "multi-variant-config.json");
+            Assert.fail("Somethings is wrong. The broken variant should throw an exception");
+        } catch (RuntimeException e) {
+            String errorMessage = "An error occurred while parsing the multi-variant-config.json. Please check the file format";
+            Assert.assertEquals(errorMessage, e.getMessage());
+        }
+    }
+
     @Test
     public void testSetCategoriesUsingStringArray() {
         AeroGearFCMPushJsonConfiguration config = new AeroGearFCMPushJsonConfiguration();
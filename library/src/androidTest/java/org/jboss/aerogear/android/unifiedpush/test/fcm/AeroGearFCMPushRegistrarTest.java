@@ -24,16 +24,21 @@ import android.util.Log;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.firebase.iid.InstanceIdResult;
 import com.google.firebase.messaging.FirebaseMessaging;
 
 import org.jboss.aerogear.android.core.Provider;
 import org.jboss.aerogear.android.pipe.http.HeaderAndBody;
+import org.jboss.aerogear.android.pipe.http.HttpException;
 import org.jboss.aerogear.android.pipe.http.HttpProvider;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetry;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
 import org.jboss.aerogear.android.unifiedpush.fcm.FCMSharedPreferenceProvider;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushServerUnavailableException;
 import org.jboss.aerogear.android.unifiedpush.fcm.UnifiedPushConfig;
 import org.jboss.aerogear.android.unifiedpush.test.util.UnitTestUtils;
 import org.jboss.aerogear.android.unifiedpush.test.util.VoidCallback;
@@ -43,6 +48,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -52,9 +58,13 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getContext;
@@ -232,6 +242,262 @@ public class AeroGearFCMPushRegistrarTest {
         Assert.assertEquals("", UnitTestUtils.getPrivateField(registrar, "deviceToken"));
     }
 
+    @Test
+    public void testRegisterAndUnregisterTasks() throws Exception {
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setCategories(CATEGORIES)
+                .setPushServerURI(new URI("https://testuri"));
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        StubHttpProvider provider = new StubHttpProvider();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", provider);
+        StubInstanceIDProvider firebaseInstanceIdProvider = new StubInstanceIDProvider();
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", firebaseInstanceIdProvider);
+
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        });
+
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        Mockito.verify(provider.mock).post(anyString());
+
+        Tasks.await(registrar.unregister(getContext()), 10, TimeUnit.SECONDS);
+        Mockito.verify(provider.mock).delete("tempId");
+
+        try {
+            Tasks.await(registrar.unregister(getContext()), 10, TimeUnit.SECONDS);
+            Assert.fail("Unregistering twice should fail");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testCompressedRegistrationFallsBackOn415() throws Exception {
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setCategories(CATEGORIES)
+                .setRequestCompressionThreshold(1)
+                .setPushServerURI(new URI("https://gzip.testuri"));
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        StubHttpProvider provider = new StubHttpProvider();
+        when(provider.mock.getUrl()).thenReturn(new URL("https://gzip.testuri/rest/registry/device"));
+        Mockito.doThrow(new HttpException(new byte[0], 415)).when(provider.mock).post((byte[]) Mockito.any());
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", provider);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        });
+
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+
+        InOrder inOrder = Mockito.inOrder(provider.mock);
+        inOrder.verify(provider.mock).setDefaultHeader("Content-Encoding", "gzip");
+        inOrder.verify(provider.mock).post((byte[]) Mockito.any());
+        inOrder.verify(provider.mock).setDefaultHeader("Content-Encoding", "identity");
+        inOrder.verify(provider.mock).post(anyString());
+
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        Mockito.verify(provider.mock, Mockito.times(1)).post((byte[]) Mockito.any());
+    }
+
+    @Test
+    public void testUnchangedRegistrationIsConditional() throws Exception {
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setCategories(CATEGORIES)
+                .setPushServerURI(new URI("https://etag.testuri"));
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        StubHttpProvider provider = new StubHttpProvider();
+        HashMap<String, Object> headers = new HashMap<String, Object>();
+        headers.put("ETag", "\"v1\"");
+        Mockito.doReturn(new HeaderAndBody(new byte[0], headers))
+                .doThrow(new HttpException(new byte[0], 304))
+                .when(provider.mock).post(anyString());
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", provider);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        });
+
+        new FCMSharedPreferenceProvider().get(getContext()).edit().remove(TEST_REGISTRAR_PREFERENCES_KEY).commit();
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        Mockito.verify(provider.mock, Mockito.never()).setDefaultHeader(Mockito.eq("If-None-Match"), anyString());
+
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        Mockito.verify(provider.mock).setDefaultHeader("If-None-Match", "\"v1\"");
+        String jsonData = new FCMSharedPreferenceProvider().get(getContext()).getString(TEST_REGISTRAR_PREFERENCES_KEY, TAG);
+        Assert.assertEquals("\"v1\"", new JSONObject(jsonData).getString("etag"));
+    }
+
+    @Test
+    public void testUpdatesOnlyTouchAffectedTopics() throws Exception {
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setCategories(CATEGORIES)
+                .setPushServerURI(new URI("https://testuri"));
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        StubHttpProvider provider = new StubHttpProvider();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", provider);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        });
+
+        try {
+            Tasks.await(registrar.updateAlias(getContext(), "alias"), 10, TimeUnit.SECONDS);
+            Assert.fail("Updating an unregistered device should fail");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+
+        Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        Tasks.await(registrar.addCategories(getContext(), "test", "extra"), 10, TimeUnit.SECONDS);
+        Tasks.await(registrar.removeCategories(getContext(), "anotherTest"), 10, TimeUnit.SECONDS);
+        Tasks.await(registrar.updateAlias(getContext(), "alias"), 10, TimeUnit.SECONDS);
+
+        Mockito.verify(mockPubSub, Mockito.times(1)).subscribeToTopic("test");
+        Mockito.verify(mockPubSub, Mockito.times(1)).subscribeToTopic("extra");
+        Mockito.verify(mockPubSub, Mockito.times(1)).unsubscribeFromTopic("anotherTest");
+        Mockito.verify(mockPubSub, Mockito.never()).unsubscribeFromTopic("test");
+
+        String jsonData = new FCMSharedPreferenceProvider().get(getContext()).getString(TEST_REGISTRAR_PREFERENCES_KEY, TAG);
+        JSONObject record = new JSONObject(jsonData);
+        Assert.assertEquals("alias", record.getString("alias"));
+        Assert.assertEquals("test", record.getJSONArray("categories").getString(0));
+        Assert.assertEquals("extra", record.getJSONArray("categories").getString(1));
+        Assert.assertEquals(2, record.getJSONArray("categories").length());
+        Assert.assertEquals("tempId", record.getString("deviceToken"));
+    }
+
+    @Test
+    public void testOverloadedServerIsNotCalledAgain() throws Exception {
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setPushServerURI(new URI("https://busy.testuri"));
+
+        StubHttpProvider provider = new StubHttpProvider();
+        Mockito.doThrow(new HttpException(new byte[0], 503)).when(provider.mock).post(anyString());
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        Provider<FirebaseMessaging> pubSubProvider = new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        };
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", provider);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", pubSubProvider);
+        try {
+            Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+            Assert.fail("503 should fail the registration");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof HttpException);
+        }
+
+        // A second registrar of the same server shares the open breaker
+        AeroGearFCMPushRegistrar other = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        UnitTestUtils.setPrivateField(other, "httpProviderProvider", provider);
+        UnitTestUtils.setPrivateField(other, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+        UnitTestUtils.setPrivateField(other, "firebaseMessagingProvider", pubSubProvider);
+        try {
+            Tasks.await(other.register(getContext()), 10, TimeUnit.SECONDS);
+            Assert.fail("The open breaker should fail the registration");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof PushServerUnavailableException);
+            Assert.assertTrue(((PushServerUnavailableException) expected.getCause()).getRetryAfterMillis() > 0);
+        }
+
+        Mockito.verify(provider.mock, Mockito.times(1)).post(anyString());
+    }
+
+    @Test
+    public void testRegisterReportsStageTimings() throws Exception {
+        final List<PushTelemetryListener.Stage> stages = new CopyOnWriteArrayList<PushTelemetryListener.Stage>();
+        PushTelemetryListener listener = new PushTelemetryListener() {
+            @Override
+            public void onStage(Stage stage, long durationNanos, Outcome outcome, long bytes, int retries) {
+                Assert.assertTrue(durationNanos >= 0);
+                if (stage == Stage.HTTP_REQUEST) {
+                    Assert.assertTrue(bytes > 0);
+                }
+                stages.add(stage);
+            }
+        };
+
+        AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID(TEST_SENDER_VARIANT)
+                .setSecret(TEST_SENDER_PASSWORD)
+                .setCategories(CATEGORIES)
+                .setPushServerURI(new URI("https://testuri"));
+        config.setTelemetryListener(listener);
+
+        AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) config.asRegistrar();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", new StubHttpProvider());
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new StubInstanceIDProvider());
+
+        final FirebaseMessaging mockPubSub = mock(FirebaseMessaging.class);
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new Provider<FirebaseMessaging>() {
+
+            @Override
+            public FirebaseMessaging get(Object... in) {
+                return mockPubSub;
+            }
+        });
+
+        try {
+            Tasks.await(registrar.register(getContext()), 10, TimeUnit.SECONDS);
+        } finally {
+            PushTelemetry.removeListener(listener);
+        }
+
+        Assert.assertTrue(stages.contains(PushTelemetryListener.Stage.TOKEN_FETCH));
+        Assert.assertTrue(stages.contains(PushTelemetryListener.Stage.HTTP_REQUEST));
+        Assert.assertTrue(stages.contains(PushTelemetryListener.Stage.PREFERENCES_COMMIT));
+        Assert.assertTrue(stages.contains(PushTelemetryListener.Stage.TOPIC_SUBSCRIPTION));
+    }
+
     @Test
     public void testRegisterExceptionsAreCaught() throws Exception {
         AeroGearFCMPushConfiguration config = new AeroGearFCMPushConfiguration()
@@ -17,6 +17,7 @@
  package org.jboss.aerogear.android.unifiedpush.test.fcm;
 
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
+import org.jboss.aerogear.android.unifiedpush.fcm.CategoryDiff;
 import org.jboss.aerogear.android.unifiedpush.fcm.UnifiedPushConfig;
 import org.junit.Assert;
 import org.junit.Test;
@@ -54,4 +55,80 @@ public class UnifiedPushConfigTest {
         Assert.assertEquals(categories, config.getCategories());
     }
 
+    @Test
+    public void shouldAddCategoryAfterSetCategoriesArray() throws Exception {
+        //given
+        UnifiedPushConfig config = new UnifiedPushConfig();
+        config.setCategories("cat1", "cat2");
+
+        //when
+        config.addCategory("cat3");
+
+        //then
+        Assert.assertEquals(Arrays.asList("cat1", "cat2", "cat3"), config.getCategories());
+    }
+
+    @Test
+    public void shouldDropDuplicateCategories() throws Exception {
+        //given
+        UnifiedPushConfig config = new UnifiedPushConfig();
+
+        //when
+        config.setCategories("cat1", "cat2", "cat1");
+        config.addCategory("cat2");
+
+        //then
+        Assert.assertEquals(Arrays.asList("cat1", "cat2"), config.getCategories());
+    }
+
+    @Test
+    public void shouldRejectInvalidCategoryWithoutChanges() throws Exception {
+        //given
+        UnifiedPushConfig config = new UnifiedPushConfig();
+        config.setCategories("cat1");
+
+        //when
+        try {
+            config.addCategories(Arrays.asList("cat2", "not valid"));
+            Assert.fail("A category with a space should be rejected");
+        } catch (IllegalArgumentException expected) {
+            //then
+            Assert.assertEquals(Arrays.asList("cat1"), config.getCategories());
+        }
+    }
+
+    @Test
+    public void shouldDiffCategories() throws Exception {
+        //given
+        UnifiedPushConfig config = new UnifiedPushConfig();
+        config.setCategories("cat1", "cat3", "cat4");
+
+        //when
+        CategoryDiff diff = config.diffCategories(Arrays.asList("cat1", "cat2"));
+
+        //then
+        Assert.assertEquals(Arrays.asList("cat3", "cat4"), diff.getAdded());
+        Assert.assertEquals(Arrays.asList("cat2"), diff.getRemoved());
+        Assert.assertTrue(config.diffCategories(config.getCategories()).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepTimeoutsPerOperation() throws Exception {
+        //given
+        UnifiedPushConfig config = new UnifiedPushConfig();
+
+        //when
+        config.setRegistrationTimeout(9000).setMetricsTimeout(2000);
+
+        //then
+        Assert.assertEquals(9000, config.getRegistrationTimeout());
+        Assert.assertEquals(30000, config.getUnregistrationTimeout());
+        Assert.assertEquals(2000, config.getMetricsTimeout());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveTimeout() throws Exception {
+        new UnifiedPushConfig().setRegistrationTimeout(0);
+    }
+
 }
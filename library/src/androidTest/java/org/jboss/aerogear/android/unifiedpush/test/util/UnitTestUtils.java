@@ -50,6 +50,14 @@ public class UnitTestUtils {
         return field.get(target);
     }
 
+    public static Object getPrivateStaticField(Class<?> type, String fieldName)
+            throws NoSuchFieldException, IllegalArgumentException,
+            IllegalAccessException {
+        Field field = type.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
     public static List<Field> getAllFields(List<Field> fields, Class<?> type) {
         Collections.addAll(fields, type.getDeclaredFields());
 
@@ -0,0 +1,64 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The outcome of {@link RegistrarManager#registerAll(android.content.Context, long, java.util.concurrent.TimeUnit)}
+ * or {@link RegistrarManager#unregisterAll(android.content.Context, long, java.util.concurrent.TimeUnit)}
+ * for every named registrar.
+ */
+public final class BulkRegistrationResult {
+
+    private final Set<String> succeeded;
+    private final Map<String, Exception> failures;
+
+    BulkRegistrationResult(Set<String> succeeded, Map<String, Exception> failures) {
+        this.succeeded = Collections.unmodifiableSet(new LinkedHashSet<>(succeeded));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * @return the names of the registrars which completed successfully
+     */
+    public Set<String> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Registrars which did not finish before the timeout fail with a
+     * {@link java.util.concurrent.TimeoutException}.
+     * 
+     * @return the exception of every registrar which failed, by name
+     */
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true if every registrar completed successfully
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+}
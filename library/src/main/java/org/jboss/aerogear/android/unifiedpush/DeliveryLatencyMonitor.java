@@ -0,0 +1,194 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.jboss.aerogear.android.core.Callback;
+import org.jboss.aerogear.android.unifiedpush.fcm.UnifiedPushMessage;
+import org.jboss.aerogear.android.unifiedpush.metrics.DeliveryLatencyMetricsMessage;
+import org.jboss.aerogear.android.unifiedpush.metrics.MetricsSender;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long push messages take from FCM to the device and from the
+ * device to the last of their handlers.
+ *
+ * Latencies are kept in process wide histograms. If a reporter is set they
+ * are also collected in batches, and every batchSize handled messages the
+ * percentiles of the batch are handed to the reporter as one
+ * {@link DeliveryLatencyMetricsMessage}.
+ */
+final class DeliveryLatencyMonitor {
+
+    private static final String TAG = DeliveryLatencyMonitor.class.getSimpleName();
+
+    private static final LatencyHistogram SEND_TO_RECEIVE = new LatencyHistogram();
+    private static final LatencyHistogram RECEIVE_TO_HANDLED = new LatencyHistogram();
+    private static final AtomicLong RECEIVED = new AtomicLong();
+    private static final AtomicLong DEPRIORITIZED = new AtomicLong();
+
+    private static final Object BATCH_LOCK = new Object();
+    private static MetricsSender<DeliveryLatencyMetricsMessage> reporter;
+    private static Batch batch;
+    private static long batches;
+
+    private DeliveryLatencyMonitor() {
+    }
+
+    /**
+     * Records the arrival of a message.
+     *
+     * @param message the message, carrying the keys the FCM service adds
+     * @param handlers how many handlers the message is dispatched to
+     * @param dispatched {@link System#nanoTime()} when it was dispatched
+     * @return the delivery to complete once per handler
+     */
+    static Delivery received(Bundle message, int handlers, long dispatched) {
+        RECEIVED.incrementAndGet();
+        Batch current = currentBatch();
+
+        long sentTime = message.getLong(UnifiedPushMessage.SENT_TIME_KEY, 0);
+        if (sentTime > 0) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - sentTime));
+            SEND_TO_RECEIVE.record(nanos);
+            if (current != null) {
+                current.sendToReceive.record(nanos);
+            }
+        }
+
+        if (message.getInt(UnifiedPushMessage.ORIGINAL_PRIORITY_KEY, 0) == RemoteMessage.PRIORITY_HIGH
+                && message.getInt(UnifiedPushMessage.PRIORITY_KEY, 0) == RemoteMessage.PRIORITY_NORMAL) {
+            DEPRIORITIZED.incrementAndGet();
+            if (current != null) {
+                current.deprioritized.incrementAndGet();
+            }
+        }
+
+        return new Delivery(handlers, dispatched, current);
+    }
+
+    static DeliveryLatencyStats snapshot() {
+        return new DeliveryLatencyStats(RECEIVED.get(), DEPRIORITIZED.get(),
+                SEND_TO_RECEIVE.snapshot(), RECEIVE_TO_HANDLED.snapshot());
+    }
+
+    static void setReporter(MetricsSender<DeliveryLatencyMetricsMessage> sender, int size) {
+        if (sender != null && size <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        synchronized (BATCH_LOCK) {
+            reporter = sender;
+            batch = sender == null ? null : new Batch(size);
+        }
+    }
+
+    private static Batch currentBatch() {
+        synchronized (BATCH_LOCK) {
+            return batch;
+        }
+    }
+
+    private static void handled(Batch handledBatch, long nanos) {
+        RECEIVE_TO_HANDLED.record(nanos);
+        if (handledBatch == null) {
+            return;
+        }
+        handledBatch.receiveToHandled.record(nanos);
+        if (handledBatch.handled.incrementAndGet() != handledBatch.size) {
+            return;
+        }
+
+        MetricsSender<DeliveryLatencyMetricsMessage> sender;
+        DeliveryLatencyMetricsMessage report;
+        synchronized (BATCH_LOCK) {
+            if (batch != handledBatch) {
+                return; // the reporter was replaced meanwhile
+            }
+            batch = new Batch(handledBatch.size);
+            sender = reporter;
+            report = handledBatch.toMessage("delivery-latency-" + (++batches));
+        }
+        sender.sendMetrics(report, new Callback<DeliveryLatencyMetricsMessage>() {
+            @Override
+            public void onSuccess(DeliveryLatencyMetricsMessage data) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * One message on its way through its handlers.
+     */
+    static final class Delivery {
+
+        private final AtomicInteger remaining;
+        private final long dispatched;
+        private final Batch batch;
+
+        Delivery(int handlers, long dispatched, Batch batch) {
+            this.remaining = new AtomicInteger(handlers);
+            this.dispatched = dispatched;
+            this.batch = batch;
+        }
+
+        /**
+         * Called once per handler when it returns or throws.
+         */
+        void handlerDone() {
+            if (remaining.decrementAndGet() == 0) {
+                handled(batch, System.nanoTime() - dispatched);
+            }
+        }
+
+    }
+
+    private static final class Batch {
+
+        final LatencyHistogram sendToReceive = new LatencyHistogram();
+        final LatencyHistogram receiveToHandled = new LatencyHistogram();
+        final AtomicLong deprioritized = new AtomicLong();
+        final AtomicInteger handled = new AtomicInteger();
+        final int size;
+
+        Batch(int size) {
+            this.size = size;
+        }
+
+        DeliveryLatencyMetricsMessage toMessage(String id) {
+            return new DeliveryLatencyMetricsMessage(id, handled.get(), deprioritized.get(),
+                    millis(sendToReceive, 50), millis(sendToReceive, 90), millis(sendToReceive, 99),
+                    millis(receiveToHandled, 50), millis(receiveToHandled, 90), millis(receiveToHandled, 99));
+        }
+
+        private static long millis(LatencyHistogram histogram, double percentile) {
+            return TimeUnit.MICROSECONDS.toMillis(histogram.getPercentileMicros(percentile));
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+/**
+ * A snapshot of how long push messages took to arrive and to be handled
+ * since the process started.
+ *
+ * @see RegistrarManager#getDeliveryLatencyStats()
+ */
+public final class DeliveryLatencyStats {
+
+    private final long received;
+    private final long deprioritized;
+    private final LatencyHistogram sendToReceive;
+    private final LatencyHistogram receiveToHandled;
+
+    DeliveryLatencyStats(long received, long deprioritized, LatencyHistogram sendToReceive, LatencyHistogram receiveToHandled) {
+        this.received = received;
+        this.deprioritized = deprioritized;
+        this.sendToReceive = sendToReceive;
+        this.receiveToHandled = receiveToHandled;
+    }
+
+    /**
+     * @return how many messages were received
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return how many messages were sent with high priority but delivered
+     *         with normal priority
+     */
+    public long getDeprioritized() {
+        return deprioritized;
+    }
+
+    /**
+     * The time from FCM accepting a message until the device received it.
+     * It compares the FCM clock to the device clock, so it is only as
+     * accurate as the device clock. Negative latencies count as 0.
+     *
+     * @return the send to receive latencies
+     */
+    public LatencyHistogram getSendToReceive() {
+        return sendToReceive;
+    }
+
+    /**
+     * @return the time from receiving a message until every handler
+     *         returned
+     */
+    public LatencyHistogram getReceiveToHandled() {
+        return receiveToHandled;
+    }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps latency histograms and counters per {@link MessageHandler} class and
+ * watches for handlers which run longer than a budget.
+ *
+ * Dispatches are watched by one periodic sweep over those in flight rather
+ * than a timer per dispatch, so a message only schedules anything when the
+ * sweep is not already running.
+ *
+ * Stats are kept by class rather than by instance, so handlers such as
+ * Activities which are registered again every time they resume are neither
+ * kept alive nor counted more than once.
+ */
+final class MessageHandlerMonitor {
+
+    private static final String TAG = MessageHandlerMonitor.class.getSimpleName();
+    private static final long DEFAULT_BUDGET = TimeUnit.SECONDS.toNanos(10);
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private static volatile long budgetNanos = DEFAULT_BUDGET;
+    private static volatile SlowMessageHandlerListener slowHandlerListener;
+
+    /**
+     * How often in-flight dispatches are checked, as a fraction of the
+     * budget. A slow handler is flagged at most this fraction late.
+     */
+    private static final long SWEEPS_PER_BUDGET = 4;
+    private static final long MIN_SWEEP_PERIOD = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final Set<Dispatch> IN_FLIGHT = Collections.newSetFromMap(new ConcurrentHashMap<Dispatch, Boolean>());
+
+    private static ScheduledThreadPoolExecutor watchdog;
+    private static ScheduledFuture<?> sweeper;
+
+    private MessageHandlerMonitor() {
+    }
+
+    static void setBudget(long budget, TimeUnit unit) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        budgetNanos = unit.toNanos(budget);
+    }
+
+    static void setSlowHandlerListener(SlowMessageHandlerListener listener) {
+        slowHandlerListener = listener;
+    }
+
+    /**
+     * Hands a message to a handler, timing it from dispatched until it
+     * returns, and flags it if it is still running once the budget passed.
+     */
+    static void handle(MessageHandler handler, Context context, Bundle message, long dispatched) {
+        Stats stats = statsOf(handler);
+        stats.inFlight.incrementAndGet();
+        Dispatch dispatch = new Dispatch(handler, stats, Thread.currentThread(), dispatched);
+        IN_FLIGHT.add(dispatch);
+        startSweeping();
+
+        boolean failed = true;
+        try {
+            handler.onMessage(context, message);
+            failed = false;
+        } finally {
+            IN_FLIGHT.remove(dispatch);
+            long elapsed = System.nanoTime() - dispatched;
+            stats.latency.record(elapsed);
+            stats.invocations.incrementAndGet();
+            stats.inFlight.decrementAndGet();
+            if (failed) {
+                stats.failures.incrementAndGet();
+            }
+        }
+    }
+
+    static List<MessageHandlerStats> snapshot() {
+        List<MessageHandlerStats> snapshot = new ArrayList<>(STATS.size());
+        for (Map.Entry<String, Stats> entry : STATS.entrySet()) {
+            Stats stats = entry.getValue();
+            snapshot.add(new MessageHandlerStats(entry.getKey(),
+                    stats.invocations.get(),
+                    stats.failures.get(),
+                    stats.slow.get(),
+                    stats.inFlight.get(),
+                    stats.latency.snapshot()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Flags the dispatches which have run past the budget, once each. The
+     * sweep stops when nothing is in flight and the next dispatch starts
+     * it again.
+     */
+    private static void sweep() {
+        long now = System.nanoTime();
+        long budget = budgetNanos;
+        for (Dispatch dispatch : IN_FLIGHT) {
+            if (!dispatch.flagged && now - dispatch.dispatched >= budget) {
+                dispatch.flagged = true;
+                flag(dispatch, now);
+            }
+        }
+
+        synchronized (MessageHandlerMonitor.class) {
+            if (IN_FLIGHT.isEmpty()) {
+                sweeper.cancel(false);
+                sweeper = null;
+            }
+        }
+    }
+
+    private static synchronized void startSweeping() {
+        if (sweeper == null) {
+            long period = Math.max(budgetNanos / SWEEPS_PER_BUDGET, MIN_SWEEP_PERIOD);
+            sweeper = watchdog().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void flag(Dispatch dispatch, long now) {
+        MessageHandler handler = dispatch.handler;
+        Thread thread = dispatch.thread;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - dispatch.dispatched);
+        dispatch.stats.slow.incrementAndGet();
+        Log.w(TAG, handler.getClass().getName() + " has been handling a message for " + elapsedMillis + "ms on " + thread.getName());
+
+        SlowMessageHandlerListener listener = slowHandlerListener;
+        if (listener != null) {
+            try {
+                listener.onSlowMessageHandler(handler, thread, elapsedMillis);
+            } catch (RuntimeException ex) {
+                Log.w(TAG, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static Stats statsOf(MessageHandler handler) {
+        String name = handler.getClass().getName();
+        Stats stats = STATS.get(name);
+        if (stats == null) {
+            STATS.putIfAbsent(name, new Stats());
+            stats = STATS.get(name);
+        }
+        return stats;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor watchdog() {
+        if (watchdog == null) {
+            watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "MessageHandlerWatchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return watchdog;
+    }
+
+    private static final class Dispatch {
+
+        final MessageHandler handler;
+        final Stats stats;
+        final Thread thread;
+        final long dispatched;
+
+        /**
+         * Only read and written by the sweep.
+         */
+        boolean flagged;
+
+        Dispatch(MessageHandler handler, Stats stats, Thread thread, long dispatched) {
+            this.handler = handler;
+            this.stats = stats;
+            this.thread = thread;
+            this.dispatched = dispatched;
+        }
+
+    }
+
+    private static final class Stats {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong invocations = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong slow = new AtomicLong();
+        final AtomicLong inFlight = new AtomicLong();
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+/**
+ * A snapshot of how the instances of a {@link MessageHandler} class have
+ * been handling messages.
+ *
+ * @see RegistrarManager#getMessageHandlerStats()
+ */
+public final class MessageHandlerStats {
+
+    private final String handlerName;
+    private final long invocations;
+    private final long failures;
+    private final long slowInvocations;
+    private final long inFlight;
+    private final LatencyHistogram latency;
+
+    MessageHandlerStats(String handlerName, long invocations, long failures, long slowInvocations, long inFlight, LatencyHistogram latency) {
+        this.handlerName = handlerName;
+        this.invocations = invocations;
+        this.failures = failures;
+        this.slowInvocations = slowInvocations;
+        this.inFlight = inFlight;
+        this.latency = latency;
+    }
+
+    /**
+     * @return the class name of the handler
+     */
+    public String getHandlerName() {
+        return handlerName;
+    }
+
+    /**
+     * @return how many messages the handler finished handling
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return how many messages the handler threw on
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return how many messages took the handler longer than the slow
+     *         handler budget
+     */
+    public long getSlowInvocations() {
+        return slowInvocations;
+    }
+
+    /**
+     * @return how many messages the handler is handling right now
+     */
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the time from dispatching a message until the handler returned
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+}
@@ -31,6 +31,8 @@ public abstract class PushConfiguration<CONFIGURATION extends PushConfiguration>
 
     private Collection<OnPushRegistrarCreatedListener> listeners = new HashSet<OnPushRegistrarCreatedListener>();
 
+    private PushTelemetryListener telemetryListener;
+
     @Override
     public String getName() {
         return name;
@@ -76,6 +78,32 @@ public abstract class PushConfiguration<CONFIGURATION extends PushConfiguration>
         return (CONFIGURATION) this;
     }
 
+    /**
+     * The listener which receives the timings of registration, token refresh
+     * and message dispatch stages.
+     * 
+     * @return the current telemetry listener or null
+     */
+    public PushTelemetryListener getTelemetryListener() {
+        return telemetryListener;
+    }
+
+    /**
+     * The listener which receives the timings of registration, token refresh
+     * and message dispatch stages. It is installed in {@link PushTelemetry}
+     * when the registrar is built, and receives the events of every
+     * registrar. Building a registrar with the same name again replaces it;
+     * otherwise it stays installed until it is passed to
+     * {@link PushTelemetry#removeListener(PushTelemetryListener)}.
+     * 
+     * @param telemetryListener the new telemetry listener
+     * @return this configuration
+     */
+    public CONFIGURATION setTelemetryListener(PushTelemetryListener telemetryListener) {
+        this.telemetryListener = telemetryListener;
+        return (CONFIGURATION) this;
+    }
+
     /**
      * 
      * Creates a {@link PushRegistrar} based on the current configuration and
@@ -90,6 +118,7 @@ public abstract class PushConfiguration<CONFIGURATION extends PushConfiguration>
     public final PushRegistrar asRegistrar() {
 
         PushRegistrar registrar = buildRegistrar();
+        PushTelemetry.installListener(name, telemetryListener);
         for (OnPushRegistrarCreatedListener listener : getOnAuthenticationCreatedListeners()) {
             listener.onPushRegistrarCreated(this, registrar);
         }
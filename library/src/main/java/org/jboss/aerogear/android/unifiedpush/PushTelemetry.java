@@ -0,0 +1,152 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+import android.util.Log;
+
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Outcome;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Stage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The process wide set of {@link PushTelemetryListener}s.
+ *
+ * Listeners given to a {@link PushConfiguration} are added here when the
+ * registrar is built, because token refreshes and message dispatch are not
+ * tied to a registrar. Every listener sees the events of every registrar.
+ * Building a registrar of the same name again replaces the listener its
+ * configuration installed before, and {@link #removeListener} removes one
+ * for good.
+ *
+ * Emitters check {@link #isEnabled()} before doing any work for an event, so
+ * telemetry costs a volatile read when no listener is installed. Registrars
+ * watch their operations for dumpsys either way, so they add a completion
+ * listener to every operation whether telemetry is enabled or not.
+ */
+public final class PushTelemetry {
+
+    private static final String TAG = PushTelemetry.class.getSimpleName();
+    private static final PushTelemetryListener[] NONE = {};
+
+    private static volatile PushTelemetryListener[] listeners = NONE;
+    private static final Map<String, PushTelemetryListener> CONFIGURED = new HashMap<>();
+
+    private PushTelemetry() {
+    }
+
+    /**
+     * Adds a listener. Adding a listener twice has no effect.
+     *
+     * @param listener the listener to add
+     */
+    public static synchronized void addListener(PushTelemetryListener listener) {
+        for (PushTelemetryListener installed : listeners) {
+            if (installed == listener) {
+                return;
+            }
+        }
+        PushTelemetryListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public static synchronized void removeListener(PushTelemetryListener listener) {
+        CONFIGURED.values().removeAll(Collections.singleton(listener));
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                PushTelemetryListener[] updated = new PushTelemetryListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Installs the listener of a named configuration in place of the one it
+     * installed before.
+     *
+     * @param name the name of the configuration, null if it has none
+     * @param listener the listener to install or null
+     */
+    static synchronized void installListener(String name, PushTelemetryListener listener) {
+        if (name != null) {
+            PushTelemetryListener previous = listener == null ? CONFIGURED.remove(name) : CONFIGURED.put(name, listener);
+            if (previous != null && previous != listener && !CONFIGURED.containsValue(previous)) {
+                removeListener(previous);
+            }
+        }
+        if (listener != null) {
+            addListener(listener);
+        }
+    }
+
+    /**
+     * @return true if at least one listener is installed
+     */
+    public static boolean isEnabled() {
+        return listeners.length != 0;
+    }
+
+    /**
+     * Delivers an event to every listener. A listener throwing does not keep
+     * the others from seeing the event.
+     *
+     * @param stage the stage
+     * @param startNanos {@link System#nanoTime()} when the stage started
+     * @param outcome how the stage ended
+     * @param bytes the size of the request body sent, 0 if there was none
+     * @param retries the redirects or retries the stage needed
+     */
+    public static void emit(Stage stage, long startNanos, Outcome outcome, long bytes, int retries) {
+        PushTelemetryListener[] current = listeners;
+        if (current.length == 0) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        for (int i = 0; i < current.length; i++) {
+            try {
+                current[i].onStage(stage, durationNanos, outcome, bytes, retries);
+            } catch (RuntimeException ex) {
+                Log.w(TAG, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * @param failure what a stage failed with, or null
+     * @return the outcome of the stage
+     */
+    public static Outcome outcomeOf(Throwable failure) {
+        if (failure == null) {
+            return Outcome.SUCCESS;
+        }
+        return failure instanceof TimeoutException ? Outcome.TIMEOUT : Outcome.FAILURE;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+/**
+ * Receives timings of the stages push registration and delivery go through.
+ *
+ * Events are delivered on the thread which finished the stage, which may be
+ * the main thread, so implementations should return quickly. All arguments
+ * are primitives or constants so delivering an event allocates nothing.
+ *
+ * @see PushConfiguration#setTelemetryListener(PushTelemetryListener)
+ * @see PushTelemetry
+ */
+public interface PushTelemetryListener {
+
+    /**
+     * A stage of the push lifecycle.
+     */
+    enum Stage {
+        /**
+         * Waiting for the FCM token
+         */
+        TOKEN_FETCH,
+        /**
+         * A request to the push server, redirects included
+         */
+        HTTP_REQUEST,
+        /**
+         * Saving or removing the registration record
+         */
+        PREFERENCES_COMMIT,
+        /**
+         * Handing topic subscriptions or unsubscriptions to Firebase
+         */
+        TOPIC_SUBSCRIPTION,
+        /**
+         * A whole registration
+         */
+        REGISTRATION,
+        /**
+         * A whole alias or category update
+         */
+        UPDATE,
+        /**
+         * A whole unregistration
+         */
+        UNREGISTRATION,
+        /**
+         * A whole metrics message
+         */
+        METRICS,
+        /**
+         * Sending a refreshed token to the push server
+         */
+        TOKEN_REFRESH,
+        /**
+         * A message handler handling a push message
+         */
+        MESSAGE_DISPATCH
+    }
+
+    /**
+     * How a stage ended.
+     */
+    enum Outcome {
+        SUCCESS,
+        FAILURE,
+        TIMEOUT
+    }
+
+    /**
+     * Called when a stage ends.
+     *
+     * @param stage the stage
+     * @param durationNanos how long the stage took
+     * @param outcome how the stage ended
+     * @param bytes the size of the request body sent, 0 if there was none
+     * @param retries the redirects or retries the stage needed
+     */
+    void onStage(Stage stage, long durationNanos, Outcome outcome, long bytes, int retries);
+
+}
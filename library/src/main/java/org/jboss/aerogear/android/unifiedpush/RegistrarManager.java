@@ -20,28 +20,50 @@ import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.ConfigurationProvider;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushJsonConfiguration;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushJsonConfigurationProvider;
 import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfigurationProvider;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushConfigLoader;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushConfigValues;
+import org.jboss.aerogear.android.unifiedpush.metrics.DeliveryLatencyMetricsMessage;
+import org.jboss.aerogear.android.unifiedpush.metrics.MetricsSender;
+import org.json.JSONException;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This is the factory and accessors for PushRegistrars
  */
 public class RegistrarManager {
 
-    private static final Map<String, PushRegistrar> REGISTRARS = new HashMap<>();
+    private static final Map<String, PushRegistrar> REGISTRARS = Collections.synchronizedMap(new HashMap<String, PushRegistrar>());
 
-    private static final List<MessageHandler> MAIN_THREAD_HANDLERS = new ArrayList<>();
-    private static final List<MessageHandler> BACKGROUND_THREAD_HANDLERS = new ArrayList<>();
+    private static final List<MessageHandler> MAIN_THREAD_HANDLERS = new CopyOnWriteArrayList<>();
+    private static final List<MessageHandler> BACKGROUND_THREAD_HANDLERS = new CopyOnWriteArrayList<>();
 
-    private static final Map<Class<? extends PushConfiguration<?>>, ConfigurationProvider<?>> CONFIGURATION_PROVIDER_MAP = new HashMap<>();
+    private static final Map<Class<? extends PushConfiguration<?>>, ConfigurationProvider<?>> CONFIGURATION_PROVIDER_MAP = new ConcurrentHashMap<>();
 
     private static final OnPushRegistrarCreatedListener ON_PUSH_REGISTRAR_CREATED_LISTENER = new OnPushRegistrarCreatedListener() {
 
@@ -100,6 +122,60 @@ public class RegistrarManager {
 
     }
 
+    /**
+     * Begins a new fluent configuration stanza from values which are known at
+     * build time, such as the class generated by the push-config Gradle
+     * plugin. No assets are read and no JSON is parsed.
+     * 
+     * @param name an identifier which will be used to fetch the
+     *            PushRegistrar after configuration is finished.
+     * @param values the push server and variant values.
+     * 
+     * @return a {@link AeroGearFCMPushConfiguration} populated with values.
+     */
+    public static AeroGearFCMPushConfiguration config(String name, PushConfigValues values) {
+        return config(name, AeroGearFCMPushConfiguration.class)
+                .setPushServerURI(URI.create(values.getPushServerURL()))
+                .setSenderId(values.getSenderID())
+                .setVariantID(values.getVariantID())
+                .setSecret(values.getVariantSecret());
+    }
+
+    /**
+     * Begins one configuration stanza for every entry of the "variants"
+     * object of a JSON configuration file. Each configuration is named after
+     * its entry and has already loaded its values, so it only needs
+     * {@link PushConfiguration#asRegistrar()} (after any alias or category
+     * changes) to build its registrar.
+     * 
+     * Prefer {@link AeroGearFCMPushJsonConfiguration#setVariantName(String)}
+     * when only some of the variants are needed, since only the requested
+     * entries are validated.
+     * 
+     * @param context your application's context
+     * @param fileName the name of the file in assets
+     * 
+     * @return the configurations keyed by variant name, in file order
+     * 
+     * @throws RuntimeException if the file can not be read or parsed
+     */
+    public static Map<String, AeroGearFCMPushJsonConfiguration> configVariants(Context context, String fileName) {
+        Map<String, AeroGearFCMPushJsonConfiguration> configurations = new LinkedHashMap<>();
+        try {
+            for (String variantName : PushConfigLoader.variantNames(context, fileName)) {
+                AeroGearFCMPushJsonConfiguration configuration = config(variantName, AeroGearFCMPushJsonConfiguration.class)
+                        .setVariantName(variantName);
+                configuration.setFileName(fileName);
+                configurations.put(variantName, configuration.loadConfigJson(context));
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException("An error occurred while parsing the " + fileName + ". Please check the file format", e);
+        } catch (IOException e) {
+            throw new RuntimeException("An error occurred while parsing the " + fileName + ". Please check if the file exists", e);
+        }
+        return configurations;
+    }
+
     /**
      * Fetches a named registrar
      * 
@@ -112,6 +188,148 @@ public class RegistrarManager {
         return REGISTRARS.get(name);
     }
 
+    /**
+     * @return the names of every registrar created so far
+     */
+    public static Set<String> getRegistrarNames() {
+        synchronized (REGISTRARS) {
+            return new TreeSet<>(REGISTRARS.keySet());
+        }
+    }
+
+    /**
+     * Registers every named registrar at the same time.
+     * 
+     * The registrars share a single FCM token fetch, and their requests to
+     * the same push server reuse pooled connections. The returned task
+     * always succeeds; check the result for the outcome of each registrar.
+     * 
+     * @param context Android application context
+     * @param timeout how long to wait for all registrars
+     * @param unit the unit of timeout
+     * 
+     * @return a task completed with the outcome of every registrar once all
+     *         are done or the timeout has passed
+     * @throws IllegalArgumentException if timeout is not positive
+     */
+    public static Task<BulkRegistrationResult> registerAll(Context context, long timeout, TimeUnit unit) {
+        return runAll(context, true, timeout, unit);
+    }
+
+    /**
+     * Unregisters every named registrar at the same time.
+     * 
+     * @param context Android application context
+     * @param timeout how long to wait for all registrars
+     * @param unit the unit of timeout
+     * 
+     * @return a task completed with the outcome of every registrar once all
+     *         are done or the timeout has passed
+     * @throws IllegalArgumentException if timeout is not positive
+     * 
+     * @see #registerAll(Context, long, TimeUnit)
+     */
+    public static Task<BulkRegistrationResult> unregisterAll(Context context, long timeout, TimeUnit unit) {
+        return runAll(context, false, timeout, unit);
+    }
+
+    private static Task<BulkRegistrationResult> runAll(Context context, boolean register, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive, was " + timeout);
+        }
+
+        final Map<String, PushRegistrar> registrars;
+        synchronized (REGISTRARS) {
+            registrars = new LinkedHashMap<>(REGISTRARS);
+        }
+
+        final TaskCompletionSource<BulkRegistrationResult> result = new TaskCompletionSource<>();
+        final Set<String> succeeded = new LinkedHashSet<>();
+        final Map<String, Exception> failures = new LinkedHashMap<>();
+        final Set<String> pending = new LinkedHashSet<>(registrars.keySet());
+
+        if (pending.isEmpty()) {
+            result.setResult(new BulkRegistrationResult(succeeded, failures));
+            return result.getTask();
+        }
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pending) {
+                    for (String name : pending) {
+                        failures.put(name, new TimeoutException(name + " did not finish in time"));
+                    }
+                    pending.clear();
+                    result.trySetResult(new BulkRegistrationResult(succeeded, failures));
+                }
+            }
+        };
+        handler.postDelayed(expire, unit.toMillis(timeout));
+
+        for (Map.Entry<String, PushRegistrar> entry : registrars.entrySet()) {
+            final String name = entry.getKey();
+            runOne(context, entry.getValue(), register).addOnCompleteListener(new OnCompleteListener<Void>() {
+                @Override
+                public void onComplete(Task<Void> task) {
+                    synchronized (pending) {
+                        if (!pending.remove(name)) {
+                            return; // already reported as timed out
+                        }
+                        if (task.isSuccessful()) {
+                            succeeded.add(name);
+                        } else {
+                            failures.put(name, task.getException());
+                        }
+                        if (pending.isEmpty()) {
+                            handler.removeCallbacks(expire);
+                            result.trySetResult(new BulkRegistrationResult(succeeded, failures));
+                        }
+                    }
+                }
+            });
+        }
+
+        return result.getTask();
+    }
+
+    private static Task<Void> runOne(Context context, PushRegistrar registrar, boolean register) {
+        try {
+            return start(context, registrar, register);
+        } catch (RuntimeException e) {
+            // A registrar throwing instead of failing its task or callback
+            // is reported like any other failure of that registrar
+            return Tasks.forException(e);
+        }
+    }
+
+    private static Task<Void> start(Context context, PushRegistrar registrar, boolean register) {
+        if (registrar instanceof TaskPushRegistrar) {
+            TaskPushRegistrar taskRegistrar = (TaskPushRegistrar) registrar;
+            return register ? taskRegistrar.register(context) : taskRegistrar.unregister(context);
+        }
+
+        final TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        Callback<Void> callback = new Callback<Void>() {
+            @Override
+            public void onSuccess(Void data) {
+                source.trySetResult(null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                source.trySetException(e);
+            }
+        };
+        if (register) {
+            registrar.register(context, callback);
+        } else {
+            registrar.unregister(context, callback);
+        }
+        return source.getTask();
+    }
+
     /**
      * 
      * When a push message is received, all main thread handlers will be
@@ -169,36 +387,121 @@ public class RegistrarManager {
      *            if there are no other handlers registered. May be null
      */
     public static void notifyHandlers(final Context context, final Bundle message, final MessageHandler defaultHandler) {
+        final long dispatched = System.nanoTime();
 
-        if (BACKGROUND_THREAD_HANDLERS.isEmpty() && MAIN_THREAD_HANDLERS.isEmpty()
-                && defaultHandler != null) {
+        // Handlers may be (un)registered while we dispatch, so the message
+        // goes to the handlers registered when it arrived.
+        MessageHandler[] backgroundHandlers = BACKGROUND_THREAD_HANDLERS.toArray(new MessageHandler[0]);
+        MessageHandler[] mainThreadHandlers = MAIN_THREAD_HANDLERS.toArray(new MessageHandler[0]);
+
+        boolean useDefault = backgroundHandlers.length == 0 && mainThreadHandlers.length == 0
+                && defaultHandler != null;
+        int handlers = useDefault ? 1 : backgroundHandlers.length + mainThreadHandlers.length;
+        final DeliveryLatencyMonitor.Delivery delivery = DeliveryLatencyMonitor.received(message, handlers, dispatched);
+
+        if (useDefault) {
             new Thread(new Runnable() {
                 public void run() {
-                    defaultHandler.onMessage(context, message);
+                    dispatch(defaultHandler, context, message, dispatched, delivery);
                 }
             }).start();
         }
 
-        for (final MessageHandler handler : BACKGROUND_THREAD_HANDLERS) {
+        for (final MessageHandler handler : backgroundHandlers) {
             new Thread(new Runnable() {
                 public void run() {
-                    handler.onMessage(context, message);
+                    dispatch(handler, context, message, dispatched, delivery);
                 }
             }).start();
         }
 
         Looper main = Looper.getMainLooper();
 
-        for (final MessageHandler handler : MAIN_THREAD_HANDLERS) {
+        for (final MessageHandler handler : mainThreadHandlers) {
             new Handler(main).post(new Runnable() {
                 @Override
                 public void run() {
-                    handler.onMessage(context, message);
+                    dispatch(handler, context, message, dispatched, delivery);
                 }
             });
         }
     }
 
+    /**
+     * Hands a message to a handler and reports the time from dispatch until
+     * the handler returned to {@link PushTelemetry} and the handler's
+     * {@link MessageHandlerStats}.
+     */
+    private static void dispatch(MessageHandler handler, Context context, Bundle message, long dispatched, DeliveryLatencyMonitor.Delivery delivery) {
+        try {
+            MessageHandlerMonitor.handle(handler, context, message, dispatched);
+        } catch (RuntimeException ex) {
+            PushTelemetry.emit(PushTelemetryListener.Stage.MESSAGE_DISPATCH, dispatched, PushTelemetryListener.Outcome.FAILURE, 0, 0);
+            throw ex;
+        } finally {
+            delivery.handlerDone();
+        }
+        PushTelemetry.emit(PushTelemetryListener.Stage.MESSAGE_DISPATCH, dispatched, PushTelemetryListener.Outcome.SUCCESS, 0, 0);
+    }
+
+    /**
+     * Snapshots of the latency histograms and counters of every handler
+     * class which has handled a message, the default handler included.
+     * Instances of the same class share their counters.
+     * 
+     * @return one snapshot per handler class
+     */
+    public static List<MessageHandlerStats> getMessageHandlerStats() {
+        return MessageHandlerMonitor.snapshot();
+    }
+
+    /**
+     * Sets how long a handler may take, from the message being dispatched
+     * until it returns, before it is logged and reported to the
+     * {@link SlowMessageHandlerListener}. Defaults to 10 seconds.
+     * 
+     * @param budget the budget
+     * @param unit the unit of budget
+     */
+    public static void setSlowMessageHandlerBudget(long budget, TimeUnit unit) {
+        MessageHandlerMonitor.setBudget(budget, unit);
+    }
+
+    /**
+     * Sets the listener told about handlers which are still running once the
+     * slow handler budget has passed.
+     * 
+     * @param listener the listener or null
+     */
+    public static void setSlowMessageHandlerListener(SlowMessageHandlerListener listener) {
+        MessageHandlerMonitor.setSlowHandlerListener(listener);
+    }
+
+    /**
+     * How long push messages took from FCM to this device and from arriving
+     * until all their handlers returned, since the process started.
+     * 
+     * @return a snapshot of the delivery latencies
+     */
+    public static DeliveryLatencyStats getDeliveryLatencyStats() {
+        return DeliveryLatencyMonitor.snapshot();
+    }
+
+    /**
+     * Reports delivery latency percentiles in batches instead of per message.
+     * Every batchSize handled messages the percentiles of the batch are sent
+     * through sender.
+     * 
+     * The UnifiedPush Server has no endpoint for delivery latencies, so the
+     * sender is typically the application's own metrics channel.
+     * 
+     * @param sender the sender of the batches or null to stop reporting
+     * @param batchSize how many messages a batch covers
+     */
+    public static void setDeliveryLatencyReporter(MetricsSender<DeliveryLatencyMetricsMessage> sender, int batchSize) {
+        DeliveryLatencyMonitor.setReporter(sender, batchSize);
+    }
+
     /**
      * 
      * This will deliver an message to all registered handlers.
@@ -0,0 +1,36 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush;
+
+/**
+ * Notified when a {@link MessageHandler} is still handling a message once
+ * the slow handler budget has passed.
+ *
+ * @see RegistrarManager#setSlowMessageHandlerBudget(long, java.util.concurrent.TimeUnit)
+ */
+public interface SlowMessageHandlerListener {
+
+    /**
+     * Called on the watchdog thread while the handler is still running.
+     *
+     * @param handler the slow handler
+     * @param thread the thread the handler is running on
+     * @param elapsedMillis how long the handler has been running
+     */
+    void onSlowMessageHandler(MessageHandler handler, Thread thread, long elapsedMillis);
+
+}
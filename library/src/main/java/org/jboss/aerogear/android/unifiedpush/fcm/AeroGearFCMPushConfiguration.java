@@ -116,6 +116,119 @@ public class AeroGearFCMPushConfiguration extends PushConfiguration<AeroGearFCMP
         return this;
     }
 
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server, for instance token based ones.
+     * 
+     * @return the current credentials
+     */
+    public PushServerCredentials getCredentials() {
+        return pushConfig.getCredentials();
+    }
+
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server, for instance token based ones.
+     * 
+     * @param credentials the new credentials
+     * @return the current configuration
+     * 
+     * @see UnifiedPushConfig#setCredentials(PushServerCredentials)
+     */
+    public AeroGearFCMPushConfiguration setCredentials(PushServerCredentials credentials) {
+        this.pushConfig.setCredentials(credentials);
+        return this;
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses.
+     * 
+     * @return the current threshold
+     */
+    public int getRequestCompressionThreshold() {
+        return pushConfig.getRequestCompressionThreshold();
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses. Servers which answer 415
+     * Unsupported Media Type are sent plain bodies instead.
+     * 
+     * @param requestCompressionThreshold the new threshold
+     * @return the current configuration
+     */
+    public AeroGearFCMPushConfiguration setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.pushConfig.setRequestCompressionThreshold(requestCompressionThreshold);
+        return this;
+    }
+
+    /**
+     * The milliseconds a registration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getRegistrationTimeout() {
+        return pushConfig.getRegistrationTimeout();
+    }
+
+    /**
+     * The milliseconds a registration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param registrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushConfiguration setRegistrationTimeout(long registrationTimeout) {
+        this.pushConfig.setRegistrationTimeout(registrationTimeout);
+        return this;
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getUnregistrationTimeout() {
+        return pushConfig.getUnregistrationTimeout();
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param unregistrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushConfiguration setUnregistrationTimeout(long unregistrationTimeout) {
+        this.pushConfig.setUnregistrationTimeout(unregistrationTimeout);
+        return this;
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total,
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getMetricsTimeout() {
+        return pushConfig.getMetricsTimeout();
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total,
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param metricsTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushConfiguration setMetricsTimeout(long metricsTimeout) {
+        this.pushConfig.setMetricsTimeout(metricsTimeout);
+        return this;
+    }
+
     /**
      * The device token Identifies the device within its Push Network. It is the
      * value = InstanceID.getInstance(context).instanceId.getToken(SENDER_ID, GoogleCloudMessaging.INSTANCE_ID_SCOPE);
@@ -23,10 +23,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * A Push Configuration which builds {@link AeroGearFCMPushRegistrar} instances.
@@ -35,14 +35,10 @@ public class AeroGearFCMPushJsonConfiguration
         extends PushConfiguration<AeroGearFCMPushJsonConfiguration> {
 
     private static final String TAG = AeroGearFCMPushJsonConfiguration.class.getName();
-    private static final String JSON_OBJECT = "android";
-    private static final String JSON_URL = "pushServerURL";
-    private static final String JSON_SENDER_ID = "senderID";
-    private static final String JSON_VARIANT_ID = "variantID";
-    private static final String JSON_VARIANT_SECRET = "variantSecret";
 
     private final UnifiedPushConfig pushConfig = new UnifiedPushConfig();
     private String fileName = "push-config.json";
+    private String variantName;
 
     public String getFileName() {
         return fileName;
@@ -52,6 +48,28 @@ public class AeroGearFCMPushJsonConfiguration
         this.fileName = fileName;
     }
 
+    /**
+     * The name of the entry of the "variants" object to load. Null if the
+     * file holds a single configuration.
+     *
+     * @return the current variant name
+     */
+    public String getVariantName() {
+        return variantName;
+    }
+
+    /**
+     * The name of the entry of the "variants" object to load. Null if the
+     * file holds a single configuration.
+     *
+     * @param variantName the new variant name
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setVariantName(String variantName) {
+        this.variantName = variantName;
+        return this;
+    }
+
     /**
      * RegistryURL is the URL of the 3rd party application server
      * 
@@ -103,6 +121,117 @@ public class AeroGearFCMPushJsonConfiguration
         return pushConfig.getSecret();
     }
 
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server, for instance token based ones.
+     * 
+     * @return the current credentials
+     */
+    public PushServerCredentials getCredentials() {
+        return pushConfig.getCredentials();
+    }
+
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server, for instance token based ones.
+     * 
+     * @param credentials the new credentials
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setCredentials(PushServerCredentials credentials) {
+        this.pushConfig.setCredentials(credentials);
+        return this;
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses.
+     * 
+     * @return the current threshold
+     */
+    public int getRequestCompressionThreshold() {
+        return pushConfig.getRequestCompressionThreshold();
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses. Servers which answer 415
+     * Unsupported Media Type are sent plain bodies instead.
+     * 
+     * @param requestCompressionThreshold the new threshold
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.pushConfig.setRequestCompressionThreshold(requestCompressionThreshold);
+        return this;
+    }
+
+    /**
+     * The milliseconds a registration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getRegistrationTimeout() {
+        return pushConfig.getRegistrationTimeout();
+    }
+
+    /**
+     * The milliseconds a registration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param registrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setRegistrationTimeout(long registrationTimeout) {
+        this.pushConfig.setRegistrationTimeout(registrationTimeout);
+        return this;
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getUnregistrationTimeout() {
+        return pushConfig.getUnregistrationTimeout();
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total, token fetch and
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param unregistrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setUnregistrationTimeout(long unregistrationTimeout) {
+        this.pushConfig.setUnregistrationTimeout(unregistrationTimeout);
+        return this;
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total,
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @return the current timeout
+     */
+    public long getMetricsTimeout() {
+        return pushConfig.getMetricsTimeout();
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total,
+     * redirects included. Defaults to 30 seconds.
+     * 
+     * @param metricsTimeout the new timeout
+     * @return the current configuration
+     */
+    public AeroGearFCMPushJsonConfiguration setMetricsTimeout(long metricsTimeout) {
+        this.pushConfig.setMetricsTimeout(metricsTimeout);
+        return this;
+    }
+
     /**
      * The device token Identifies the device within its Push Network. It is the
      * value = FirebaseInstanceId.getInstance().getToken();
@@ -271,27 +400,21 @@ public class AeroGearFCMPushJsonConfiguration
      * }
      * </pre>
      *
+     * If a variant name is set, the values are read from the entry of that
+     * name in the "variants" object instead. See {@link PushConfigLoader}.
+     *
      * @param context your application's context
      *
      * @return the current configuration
      */
     public AeroGearFCMPushJsonConfiguration loadConfigJson(Context context) {
-        InputStream fileStream = null;
         try {
-            fileStream = context.getResources().getAssets().open(getFileName());
-            int size = fileStream.available();
-            byte[] buffer = new byte[size];
-            fileStream.read(buffer);
-            fileStream.close();
-            String json = new String(buffer);
-
-            JSONObject pushConfig = new JSONObject(json);
-            JSONObject pushAndroidConfig = pushConfig.getJSONObject(JSON_OBJECT);
-
-            this.pushConfig.setPushServerURI(new URI(pushConfig.getString(JSON_URL)));
-            this.pushConfig.setSenderId(pushAndroidConfig.getString(JSON_SENDER_ID));
-            this.pushConfig.setVariantID(pushAndroidConfig.getString(JSON_VARIANT_ID));
-            this.pushConfig.setSecret(pushAndroidConfig.getString(JSON_VARIANT_SECRET));
+            PushConfigValues values = PushConfigLoader.loadValues(context, getFileName(), variantName);
+
+            this.pushConfig.setPushServerURI(new URI(values.getPushServerURL()));
+            this.pushConfig.setSenderId(values.getSenderID());
+            this.pushConfig.setVariantID(values.getVariantID());
+            this.pushConfig.setSecret(values.getVariantSecret());
         } catch (URISyntaxException e) {
             // It will never happen
             Log.e(TAG, e.getMessage(), e);
@@ -301,19 +424,23 @@ public class AeroGearFCMPushJsonConfiguration
         } catch (IOException e) {
             Log.e(TAG, e.getMessage(), e);
             throw new RuntimeException("An error occurred while parsing the " + getFileName() + ". Please check if the file exists");
-        } finally {
-            if (fileStream != null) {
-                try {
-                    fileStream.close();
-                } catch (IOException e) {
-                    // Ignore IOException
-                }
-            }
         }
 
         return this;
     }
 
+    /**
+     * Starts reading and parsing the configured file on a background thread so
+     * a later call to {@link #loadConfigJson(Context)} does not touch assets.
+     *
+     * @param context your application's context
+     *
+     * @return a future of the parsed file
+     */
+    public Future<JSONObject> preloadConfigJson(Context context) {
+        return PushConfigLoader.loadAsync(context, getFileName());
+    }
+
     /**
      * 
      * Protected builder method.
@@ -19,40 +19,59 @@ package org.jboss.aerogear.android.unifiedpush.fcm;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
-import android.util.Base64;
+import android.text.format.DateFormat;
 import android.util.Log;
 
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
-import java.net.HttpURLConnection;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.firebase.messaging.FirebaseMessaging;
 import com.google.gson.JsonParser;
 import org.jboss.aerogear.android.core.Callback;
 import org.jboss.aerogear.android.core.Provider;
+import org.jboss.aerogear.android.pipe.http.HeaderAndBody;
 import org.jboss.aerogear.android.pipe.http.HttpException;
 import org.jboss.aerogear.android.pipe.http.HttpProvider;
 import org.jboss.aerogear.android.pipe.http.HttpRestProvider;
 import org.jboss.aerogear.android.pipe.util.UrlUtils;
-import org.jboss.aerogear.android.unifiedpush.PushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetry;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Outcome;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Stage;
+import org.jboss.aerogear.android.unifiedpush.TaskPushRegistrar;
 import org.jboss.aerogear.android.unifiedpush.metrics.MetricsSender;
 import org.jboss.aerogear.android.unifiedpush.metrics.UnifiedPushMetricsMessage;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
-
-public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<UnifiedPushMetricsMessage> {
-
-    private final static String BASIC_HEADER = "Authorization";
-    private final static String AUTHORIZATION_METHOD = "Basic";
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AeroGearFCMPushRegistrar implements TaskPushRegistrar, MetricsSender<UnifiedPushMetricsMessage> {
 
     private static final String LEGACY_PROPERTY_REG_ID = "registration_id";
 
-    private static final Integer TIMEOUT = 30000;// 30 seconds
+    private static final Executor WORKER = AsyncTask.THREAD_POOL_EXECUTOR;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
     private static final String TAG = AeroGearFCMPushRegistrar.class.getSimpleName();
     /**
      * This pattern is used by {@link AeroGearUPSMessageService} to
@@ -69,24 +88,56 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
      */
     static final String REGISTRAR_PREFERENCE_TEMPLATE = "org.jboss.aerogear.android.unifiedpush.gcm.AeroGearGCMPushRegistrar:%s";
 
-    private static final String registryDeviceEndpoint = "/rest/registry/device";
-    private static final String metricsEndpoint = "/rest/registry/device/pushMessage";
+    static final String registryDeviceEndpoint = "/rest/registry/device";
+    static final String metricsEndpoint = "/rest/registry/device/pushMessage";
+
+    /**
+     * The fields of a registration record which are sent to the push server.
+     */
+    static final String[] REGISTRATION_FIELDS = {"deviceType", "deviceToken", "alias", "operatingSystem", "osVersion", "categories"};
 
     private static final String DEVICE_ALREADY_UNREGISTERED = "Seems this device was already unregistered";
+    private static final String DEVICE_NOT_REGISTERED = "The device has to be registered before it can be updated";
 
     private final String senderId;
 
-    private FirebaseInstanceId instanceId;
-    private URL deviceRegistryURL;
-    private URL metricsURL;
-    private String deviceToken = "";
+    private volatile FirebaseInstanceId instanceId;
+    private final URL pushServerURL;
+    private volatile URL deviceRegistryURL;
+    private volatile URL metricsURL;
+    private volatile String deviceToken = "";
     private final String secret;
     private final String variantId;
     private final String deviceType;
-    private final String alias;
+    private volatile String alias;
     private final String operatingSystem;
     private final String osVersion;
-    private final ArrayList<String> categories;
+    private volatile Set<String> categories;
+    private final int requestCompressionThreshold;
+    private final long registrationTimeout;
+    private final long unregistrationTimeout;
+    private final long metricsTimeout;
+
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    private final AtomicInteger pendingMetrics = new AtomicInteger();
+    private volatile long lastRegistrationTime;
+    private volatile Outcome lastRegistrationOutcome;
+    private volatile long lastPrewarmEstimate = -1;
+
+    /**
+     * Runs register, unregister and updates one at a time, so the device
+     * token, the push server and the saved record always describe the same
+     * registration. Operations waiting for their turn do not hold a worker
+     * thread.
+     */
+    private final Executor registrationExecutor = new SerialExecutor(WORKER);
+    private volatile int unregistrations;
+
+    /**
+     * The application context of the last operation given one, used by
+     * metrics sent without a context.
+     */
+    private volatile Context applicationContext;
 
     private Provider<HttpProvider> httpProviderProvider = new Provider<HttpProvider>() {
 
@@ -119,14 +170,20 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
         this.deviceToken = config.getDeviceToken();
         this.variantId = config.getVariantID();
         this.secret = config.getSecret();
+        UnifiedPushCredentials.configure(variantId, config.getCredentials());
         this.deviceType = config.getDeviceType();
         this.alias = config.getAlias();
         this.operatingSystem = config.getOperatingSystem();
         this.osVersion = config.getOsVersion();
-        this.categories = new ArrayList<String>(config.getCategories());
+        this.categories = Collections.unmodifiableSet(new LinkedHashSet<String>(config.getCategorySet()));
+        this.requestCompressionThreshold = config.getRequestCompressionThreshold();
+        this.registrationTimeout = config.getRegistrationTimeout();
+        this.unregistrationTimeout = config.getUnregistrationTimeout();
+        this.metricsTimeout = config.getMetricsTimeout();
         try {
-            this.deviceRegistryURL = UrlUtils.appendToBaseURL(config.getPushServerURI().toURL(), registryDeviceEndpoint);
-            this.metricsURL = UrlUtils.appendToBaseURL(config.getPushServerURI().toURL(), metricsEndpoint);
+            this.pushServerURL = config.getPushServerURI().toURL();
+            this.deviceRegistryURL = UrlUtils.appendToBaseURL(pushServerURL, registryDeviceEndpoint);
+            this.metricsURL = UrlUtils.appendToBaseURL(pushServerURL, metricsEndpoint);
         } catch (MalformedURLException ex) {
             Log.e(TAG, ex.getMessage());
             throw new IllegalStateException("pushserverUrl was not a valid URL");
@@ -135,104 +192,239 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
 
     @Override
     public void register(final Context context, final Callback<Void> callback) {
-        new AsyncTask<Void, Void, Exception>() {
+        deliver(register(context), callback, null);
+    }
 
-            @Override
-            protected Exception doInBackground(Void... params) {
+    /**
+     * Registers a device to FCM and the UnifiedPush Server.
+     *
+     * The token fetch, the registration request and the topic subscriptions
+     * run as a chain of continuations. No thread waits for a token, and a
+     * worker thread is only used while Firebase creates a token and while
+     * the request is being sent.
+     *
+     * The token fetch and the request share the registration timeout. Topic
+     * subscriptions are handed to Firebase without waiting for them.
+     *
+     * @param context Android application context
+     * @return a task which completes when the device is registered
+     */
+    @Override
+    public Task<Void> register(final Context context) {
+        final long started = System.nanoTime();
+        final Deadline deadline = Deadline.after(registrationTimeout);
+        return track(Stage.REGISTRATION, started, register(context, deadline, timedFetchToken(context, deadline), unregistrations, false));
+    }
 
-                try {
+    /**
+     * Registers with a token once it is loaded, on the registration executor.
+     *
+     * @param unregistered the number of unregistrations when the token was
+     *            loaded
+     * @param requested if the token was requested for the sender id
+     */
+    private Task<Void> register(final Context context, final Deadline deadline, Task<String> token,
+                                final int unregistered, final boolean requested) {
+        return token.continueWithTask(registrationExecutor, new Continuation<String, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<String> tokenTask) throws Exception {
+                if (!tokenTask.isSuccessful()) {
+                    throw tokenTask.getException();
+                }
 
-                    if (instanceId == null) {
-                        instanceId = firebaseInstanceIdProvider.get(context);
-                    }
+                /*
+                The shared token is null if Firebase has not created one
+                yet, and was deleted if the device was unregistered since
+                it was loaded. Then a token is requested for the sender id
+                and the registration waits for its turn again, so the
+                executor is not held while Firebase creates the token.
+                 */
+                String token = tokenTask.getResult();
+                if (unregistered != unregistrations || (token == null && !requested)) {
+                    return register(context, deadline, requestToken(deadline), unregistrations, true);
+                }
+                if (token == null) {
+                    throw new IllegalStateException("Firebase did not create a token");
+                }
 
-                    /*
-                    The getToken method will return a cached token.  If the 
-                    token is null then we need to force a token to be loaded.
-                     */
-                    String token = Tasks.await(instanceId.getInstanceId(), 30, TimeUnit.SECONDS).getToken();
-                    String oldToken = getOldToken(context);
-                    if (token == null) {
-                        token = instanceId.getToken(senderId, FirebaseMessaging.INSTANCE_ID_SCOPE);
-                    }
+                resolveEndpoints(context);
+                JsonObject savedPostData = getSavedPostData(context);
+                final String oldToken = getOldToken(savedPostData);
+                deviceToken = token;
+
+                final JsonObject postData = registrationData();
+                final String body = postData.toString();
+
+                final String etag = RegistrationETags.conditionFor(savedPostData, postData, deviceRegistryURL);
+                final AtomicLong sent = new AtomicLong();
+                HeaderAndBody response = sendToPushServer(context, deadline, false, null, sent, new Request() {
+                    @Override
+                    public HeaderAndBody send(HttpProvider httpProvider) throws IOException {
+                        httpProvider.setDefaultHeader("x-ag-old-token", oldToken);
+                        if (etag == null) {
+                            return RequestCompression.post(httpProvider, body, requestCompressionThreshold, sent);
+                        }
 
-                    deviceToken = token;
-
-                    HttpProvider httpProvider = httpProviderProvider.get(deviceRegistryURL, TIMEOUT);
-                    setPasswordAuthentication(variantId, secret, httpProvider);
-
-                    httpProvider.setDefaultHeader("x-ag-old-token", oldToken);
-                    
-                    try {
-                        JsonObject postData = new JsonObject();
-                        postData.addProperty("deviceType", deviceType);
-                        postData.addProperty("deviceToken", deviceToken);
-                        postData.addProperty("alias", alias);
-                        postData.addProperty("operatingSystem", operatingSystem);
-                        postData.addProperty("osVersion", osVersion);
-                        if (categories != null && !categories.isEmpty()) {
-                            JsonArray jsonCategories = new JsonArray();
-                            for (String category : categories) {
-                                jsonCategories.add(new JsonPrimitive(category));
+                        httpProvider.setDefaultHeader(RegistrationETags.IF_NONE_MATCH, etag);
+                        try {
+                            return RequestCompression.post(httpProvider, body, requestCompressionThreshold, sent);
+                        } catch (HttpException ex) {
+                            if (!RegistrationETags.isNotModified(ex.getStatusCode())) {
+                                throw ex;
                             }
-                            postData.add("categories", jsonCategories);
+                            return null; // the server already has this registration
                         }
+                    }
+                });
+                String newETag = response == null ? etag : RegistrationETags.from(response);
+
+                postData.addProperty("deviceRegistryURL", deviceRegistryURL.toString());
+                postData.addProperty("pushServerURL", pushServerURL.toString());
+                postData.addProperty("variantId", variantId);
+                postData.addProperty("secret", secret);
+                postData.addProperty("requestCompressionThreshold", requestCompressionThreshold);
+                if (newETag != null) {
+                    postData.addProperty(RegistrationETags.RECORD_KEY, newETag);
+                }
+                presistPostInformation(context.getApplicationContext(), postData);
+                long subscribing = System.nanoTime();
+                FirebaseMessaging firebaseMessaging = firebaseMessagingProvider.get(context);
 
-                        httpProvider.post(postData.toString());
+                for (String catgory : categories) {
+                    firebaseMessaging.subscribeToTopic(catgory);
+                }
 
-                        postData.addProperty("deviceRegistryURL", deviceRegistryURL.toString());
-                        postData.addProperty("variantId", variantId);
-                        postData.addProperty("secret", secret);
-                        presistPostInformation(context.getApplicationContext(), postData);
-                        FirebaseMessaging firebaseMessaging = firebaseMessagingProvider.get(context);
+                //Subscribe to global topic
+                firebaseMessaging.subscribeToTopic(variantId);
+                PushTelemetry.emit(Stage.TOPIC_SUBSCRIPTION, subscribing, Outcome.SUCCESS, 0, 0);
+                return Tasks.forResult(null);
+            }
+        });
+    }
 
-                        for (String catgory : categories) {
-                            firebaseMessaging.subscribeToTopic(catgory);
-                        }
+    /**
+     * Changes the alias of a registered device without registering it again.
+     *
+     * The device token of the last registration, saved by this or an earlier
+     * process, is reused and no topic is touched. The push
+     * server only accepts whole registrations, so the request carries the
+     * full registration with the new alias.
+     *
+     * @param context Android application context
+     * @param alias the new alias, may be null
+     * @return a task which completes when the push server has the new alias
+     */
+    public Task<Void> updateAlias(Context context, String alias) {
+        return update(context, true, alias, Collections.<String>emptyList(), Collections.<String>emptyList());
+    }
 
-                        //Subscribe to global topic
-                        firebaseMessaging.subscribeToTopic(variantId);
-                        return null;
-                    } catch (HttpException ex) {
-                        return ex;
-                    }
+    /**
+     * Adds categories to a registered device without registering it again.
+     * Only the topics of categories which are new are subscribed to.
+     *
+     * @param context Android application context
+     * @param categories the categories to add
+     * @return a task which completes when the push server has the categories
+     * @throws IllegalArgumentException if a category is not a valid FCM topic
+     */
+    public Task<Void> addCategories(Context context, String... categories) {
+        List<String> added = Arrays.asList(categories);
+        UnifiedPushConfig.validateCategories(added);
+        return update(context, false, null, added, Collections.<String>emptyList());
+    }
 
-                } catch (Exception ex) {
-                    return ex;
+    /**
+     * Removes categories from a registered device without registering it
+     * again. Only the topics of categories which were present are
+     * unsubscribed from.
+     *
+     * @param context Android application context
+     * @param categories the categories to remove
+     * @return a task which completes when the push server has the categories
+     */
+    public Task<Void> removeCategories(Context context, String... categories) {
+        return update(context, false, null, Collections.<String>emptyList(), Arrays.asList(categories));
+    }
+
+    /**
+     * Changes the alias or the categories. The new categories are worked out
+     * when the update gets its turn on the registration executor, so
+     * concurrent updates do not lose each other's changes.
+     *
+     * A registrar built after a restart does not know the device token yet,
+     * so it is taken from the saved registration record.
+     */
+    private Task<Void> update(final Context context, final boolean changeAlias, final String newAlias,
+            final Collection<String> added, final Collection<String> removed) {
+        final long started = System.nanoTime();
+        final Deadline deadline = Deadline.after(registrationTimeout);
+        return track(Stage.UPDATE, started, Tasks.call(registrationExecutor, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if ((deviceToken == null) || (deviceToken.trim().equals(""))) {
+                    deviceToken = getOldToken(getSavedPostData(context));
+                }
+                if ((deviceToken == null) || (deviceToken.trim().equals(""))) {
+                    throw new IllegalStateException(DEVICE_NOT_REGISTERED);
                 }
 
-            }
+                Set<String> newCategories = new LinkedHashSet<String>(categories);
+                newCategories.addAll(added);
+                newCategories.removeAll(removed);
 
-            @SuppressWarnings("unchecked")
-            @Override
-            protected void onPostExecute(Exception result) {
-                if (result == null) {
-                    callback.onSuccess(null);
-                } else if (result instanceof HttpException) {
-                    HttpException httpException = (HttpException) result;
-                    switch (httpException.getStatusCode()) {
-                        case HttpURLConnection.HTTP_MOVED_PERM:
-                        case HttpURLConnection.HTTP_MOVED_TEMP:
-                        case 307://Temporary Redirect not in HTTPUrlConnection
-                            Log.w(TAG, httpException.getMessage());
-                            try {
-                                URL redirectURL = new URL(httpException.getHeaders().get("Location"));
-                                AeroGearFCMPushRegistrar.this.deviceRegistryURL = redirectURL;
-                                register(context, callback);
-                            } catch (MalformedURLException e) {
-                                callback.onFailure(e);
-                            }
-                            break;
-                        default:
-                            callback.onFailure(result);
-                    }
-                } else {
-                    callback.onFailure(result);
+                CategoryDiff diff = CategoryDiff.between(categories, newCategories);
+                String previousAlias = alias;
+                Set<String> previousCategories = categories;
+                if (changeAlias) {
+                    alias = newAlias;
                 }
-            }
+                categories = Collections.unmodifiableSet(newCategories);
 
-        }.execute((Void) null);
+                final JsonObject postData = registrationData();
+                final String body = postData.toString();
+                final AtomicLong sent = new AtomicLong();
+                HeaderAndBody response;
+                try {
+                    resolveEndpoints(context);
+                    response = sendToPushServer(context, deadline, false, null, sent, new Request() {
+                        @Override
+                        public HeaderAndBody send(HttpProvider httpProvider) throws IOException {
+                            return RequestCompression.post(httpProvider, body, requestCompressionThreshold, sent);
+                        }
+                    });
+                } catch (Exception ex) {
+                    alias = previousAlias;
+                    categories = previousCategories;
+                    throw ex;
+                }
 
+                JsonObject savedPostData = getSavedPostData(context);
+                if (savedPostData != null) {
+                    savedPostData.add("alias", postData.get("alias"));
+                    savedPostData.remove("categories");
+                    if (postData.has("categories")) {
+                        savedPostData.add("categories", postData.get("categories"));
+                    }
+                    savedPostData.remove(RegistrationETags.RECORD_KEY);
+                    String etag = RegistrationETags.from(response);
+                    if (etag != null) {
+                        savedPostData.addProperty(RegistrationETags.RECORD_KEY, etag);
+                    }
+                    presistPostInformation(context.getApplicationContext(), savedPostData);
+                }
+
+                long subscribing = System.nanoTime();
+                FirebaseMessaging firebaseMessaging = firebaseMessagingProvider.get(context);
+                for (String category : diff.getAdded()) {
+                    firebaseMessaging.subscribeToTopic(category);
+                }
+                for (String category : diff.getRemoved()) {
+                    firebaseMessaging.unsubscribeFromTopic(category);
+                }
+                PushTelemetry.emit(Stage.TOPIC_SUBSCRIPTION, subscribing, Outcome.SUCCESS, 0, 0);
+                return null;
+            }
+        }));
     }
 
     /**
@@ -245,61 +437,114 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
      */
     @Override
     public void unregister(final Context context, final Callback<Void> callback) {
-        new AsyncTask<Void, Void, Exception>() {
-            @Override
-            protected Exception doInBackground(Void... params) {
-
-                try {
+        deliver(unregister(context), callback, null);
+    }
 
-                    if ((deviceToken == null) || (deviceToken.trim().equals(""))) {
-                        throw new IllegalStateException(DEVICE_ALREADY_UNREGISTERED);
-                    }
+    /**
+     * Unregister device from Unified Push Server.
+     *
+     * if the device isn't registered the task fails with an
+     * IllegalStateException
+     *
+     * @param context Android application context
+     * @return a task which completes when the device is unregistered
+     */
+    @Override
+    public Task<Void> unregister(final Context context) {
+        if ((deviceToken == null) || (deviceToken.trim().equals(""))) {
+            return Tasks.forException(new IllegalStateException(DEVICE_ALREADY_UNREGISTERED));
+        }
 
-                    if (instanceId == null) {
-                        instanceId = firebaseInstanceIdProvider.get(context);
-                    }
-                    String token = Tasks.await(instanceId.getInstanceId(), 30, TimeUnit.SECONDS).getToken();
+        // Makes sure the instance id exists before it is deleted
+        final long started = System.nanoTime();
+        final Deadline deadline = Deadline.after(unregistrationTimeout);
+        return track(Stage.UNREGISTRATION, started, timedFetchToken(context, deadline).continueWith(registrationExecutor, new Continuation<String, Void>() {
+            @Override
+            public Void then(Task<String> tokenTask) throws Exception {
+                if (!tokenTask.isSuccessful()) {
+                    throw tokenTask.getException();
+                }
 
-                    FirebaseMessaging firebaseMessaging = firebaseMessagingProvider.get(context);
+                if ((deviceToken == null) || (deviceToken.trim().equals(""))) {
+                    throw new IllegalStateException(DEVICE_ALREADY_UNREGISTERED);
+                }
 
-                    for (String catgory : categories) {
-                        firebaseMessaging.unsubscribeFromTopic(catgory);
-                    }
+                long unsubscribing = System.nanoTime();
+                FirebaseMessaging firebaseMessaging = firebaseMessagingProvider.get(context);
 
-                    //Unsubscribe to generic topic
-                    firebaseMessaging.unsubscribeFromTopic(variantId);
+                for (String catgory : categories) {
+                    firebaseMessaging.unsubscribeFromTopic(catgory);
+                }
 
-                    instanceId.deleteInstanceId();
+                //Unsubscribe to generic topic
+                firebaseMessaging.unsubscribeFromTopic(variantId);
+                PushTelemetry.emit(Stage.TOPIC_SUBSCRIPTION, unsubscribing, Outcome.SUCCESS, 0, 0);
 
-                    HttpProvider provider = httpProviderProvider.get(deviceRegistryURL, TIMEOUT);
-                    setPasswordAuthentication(variantId, secret, provider);
+                instanceId.deleteInstanceId();
+                FCMTokenCache.invalidate();
+                unregistrations++;
 
-                    try {
-                        provider.delete(deviceToken);
-                        deviceToken = "";
-                        removeSavedPostData(context.getApplicationContext());
-                        return null;
-                    } catch (HttpException ex) {
-                        return ex;
+                resolveEndpoints(context);
+                final String token = deviceToken;
+                sendToPushServer(context, deadline, false, token, null, new Request() {
+                    @Override
+                    public HeaderAndBody send(HttpProvider provider) {
+                        return provider.delete(token);
                     }
-
-                } catch (Exception ex) {
-                    return ex;
-                }
-
+                });
+                deviceToken = "";
+                removeSavedPostData(context.getApplicationContext());
+                return null;
             }
+        }));
+    }
+
+    /**
+     * Opens a connection to the push server in the background so the first
+     * registration or metrics request does not pay for the DNS lookup, the
+     * TCP connection and the TLS handshake. Meant to be called while the
+     * application starts.
+     *
+     * @param context Android application context
+     * @param callback receives an estimate of the milliseconds the warm
+     *            connection saves, see {@link #prewarm(Context)}
+     */
+    public void prewarm(Context context, Callback<Long> callback) {
+        deliver(prewarm(context), callback);
+    }
 
-            @SuppressWarnings("unchecked")
+    /**
+     * Opens a connection to the push server in the background so the first
+     * registration or metrics request does not pay for the DNS lookup, the
+     * TCP connection and the TLS handshake. Meant to be called while the
+     * application starts.
+     *
+     * The connection stays in the HTTP connection pool for as long as the
+     * platform keeps idle connections, and the TLS session is resumed by
+     * later connections.
+     *
+     * The requests share the registration timeout, and are not sent to a
+     * push server which answered 429 or 503 until it is available again.
+     *
+     * The result compares two HEAD requests sent without credentials, one
+     * on a new connection and one on the warm connection. It is a proxy for
+     * the latency saved, not a measurement of a registration.
+     *
+     * @param context Android application context
+     * @return a task of the milliseconds a HEAD request on the warm
+     *         connection took less than the one which set it up
+     */
+    public Task<Long> prewarm(final Context context) {
+        final Deadline deadline = Deadline.after(registrationTimeout);
+        return Tasks.call(WORKER, new Callable<Long>() {
             @Override
-            protected void onPostExecute(Exception result) {
-                if (result == null) {
-                    callback.onSuccess(null);
-                } else {
-                    callback.onFailure(result);
-                }
+            public Long call() throws Exception {
+                resolveEndpoints(context);
+                long saved = ConnectionPrewarmer.prewarm(deviceRegistryURL, deadline);
+                lastPrewarmEstimate = saved;
+                return saved;
             }
-
-        }.execute((Void) null);
+        });
     }
 
     /**
@@ -311,54 +556,307 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
     @Override
     public void sendMetrics(final UnifiedPushMetricsMessage metricsMessage,
             final Callback<UnifiedPushMetricsMessage> callback) {
-        new AsyncTask<Void, Void, Exception>() {
-            @Override
-            protected Exception doInBackground(Void... params) {
+        deliver(sendMetrics(metricsMessage), callback, metricsMessage);
+    }
 
-                try {
+    /**
+     * Send a confirmation the message was opened
+     *
+     * Permanent redirects of the push server are only known once this
+     * registrar was given a context, see
+     * {@link #sendMetrics(Context, UnifiedPushMetricsMessage)}.
+     *
+     * @param metricsMessage The id of the message received
+     * @return a task which completes with metricsMessage once it was sent
+     */
+    public Task<UnifiedPushMetricsMessage> sendMetrics(final UnifiedPushMetricsMessage metricsMessage) {
+        return sendMetrics(applicationContext, metricsMessage);
+    }
+
+    /**
+     * Send a confirmation the message was opened
+     *
+     * The request goes to where the push server was permanently moved to, and
+     * a permanent redirect of the metrics endpoint is saved for later
+     * requests and token refreshes.
+     *
+     * @param context Android application context or null
+     * @param metricsMessage The id of the message received
+     * @return a task which completes with metricsMessage once it was sent
+     */
+    public Task<UnifiedPushMetricsMessage> sendMetrics(final Context context, final UnifiedPushMetricsMessage metricsMessage) {
+        final long started = System.nanoTime();
+        final Deadline deadline = Deadline.after(metricsTimeout);
+        return track(Stage.METRICS, started, Tasks.call(WORKER, new Callable<UnifiedPushMetricsMessage>() {
+            @Override
+            public UnifiedPushMetricsMessage call() throws Exception {
+                if ((metricsMessage.getMessageId() == null) || (metricsMessage.getMessageId().trim().equals(""))) {
+                    throw new IllegalStateException("Message ID cannot be null or blank");
+                }
 
-                    if ((metricsMessage.getMessageId() == null) || (metricsMessage.getMessageId().trim().equals(""))) {
-                        throw new IllegalStateException("Message ID cannot be null or blank");
+                if (context != null) {
+                    resolveEndpoints(context);
+                }
+                sendToPushServer(context, deadline, true, metricsMessage.getMessageId(), null, new Request() {
+                    @Override
+                    public HeaderAndBody send(HttpProvider provider) {
+                        return provider.put(metricsMessage.getMessageId(), "");
                     }
+                });
+                return metricsMessage;
+            }
+        }));
+    }
 
-                    HttpProvider provider = httpProviderProvider.get(metricsURL, TIMEOUT);
-                    setPasswordAuthentication(variantId, secret, provider);
+    /**
+     * Builds the registration payload from the current state of this
+     * registrar.
+     */
+    JsonObject registrationData() {
+        JsonObject postData = new JsonObject();
+        postData.addProperty("deviceType", deviceType);
+        postData.addProperty("deviceToken", deviceToken);
+        postData.addProperty("alias", alias);
+        postData.addProperty("operatingSystem", operatingSystem);
+        postData.addProperty("osVersion", osVersion);
+        if (categories != null && !categories.isEmpty()) {
+            JsonArray jsonCategories = new JsonArray();
+            for (String category : categories) {
+                jsonCategories.add(new JsonPrimitive(category));
+            }
+            postData.add("categories", jsonCategories);
+        }
+        return postData;
+    }
 
-                    try {
-                        provider.put(metricsMessage.getMessageId(), "");
-                        return null;
-                    } catch (HttpException ex) {
-                        return ex;
-                    }
+    /**
+     * Points the registry and metrics endpoints at the push server, or at
+     * where it has permanently moved to.
+     */
+    private void resolveEndpoints(Context context) throws MalformedURLException {
+        applicationContext = context.getApplicationContext();
+        URL resolved = PushServerRedirects.resolve(preferenceProvider.get(applicationContext), pushServerURL);
+        deviceRegistryURL = UrlUtils.appendToBaseURL(resolved, registryDeviceEndpoint);
+        metricsURL = UrlUtils.appendToBaseURL(resolved, metricsEndpoint);
+    }
 
+    /**
+     * Sends a request to the registry or metrics endpoint, following at most
+     * {@link PushServerRedirects#MAX_REDIRECTS} redirects.
+     *
+     * A permanent redirect which moves the whole push server is applied to
+     * both endpoints and, if a context is given and the push server stays in
+     * its origin, saved for later requests and token refreshes. Other
+     * redirects only apply to this registrar until the endpoints are
+     * resolved again. Redirects from https to http fail the request.
+     *
+     * Requests to a push server which answered 429 or 503 fail without
+     * being sent until it is available again, see
+     * {@link PushServerCircuitBreaker}.
+     *
+     * @param context the context used to save permanent redirects or null
+     * @param deadline the deadline of the operation, every attempt has to
+     *            end by it
+     * @param metrics true to send to the metrics endpoint
+     * @param resourceId the id the request appends to the endpoint or null
+     * @param sent holds the size of the request body as sent, reported to
+     *            {@link PushTelemetry}, or null if there is no body
+     * @param request the request
+     * @return the response of the request
+     */
+    private HeaderAndBody sendToPushServer(Context context, Deadline deadline, boolean metrics, String resourceId, AtomicLong sent, Request request) throws Exception {
+        long started = System.nanoTime();
+        int redirects = 0;
+        try {
+            PushServerCredentials credentials = UnifiedPushCredentials.forVariant(variantId, secret);
+            for (;; redirects++) {
+                URL endpointURL = metrics ? metricsURL : deviceRegistryURL;
+                int timeout = deadline.requestTimeout("Push server request");
+                // See PushServerCircuitBreaker.check for recording the outcome
+                PushServerCircuitBreaker.check(endpointURL);
+                try {
+                    HttpProvider provider = httpProviderProvider.get(endpointURL, timeout);
+                    UnifiedPushCredentials.authenticate(credentials, provider);
+                    HeaderAndBody response = request.send(provider);
+                    PushServerCircuitBreaker.record(endpointURL, null);
+                    PushTelemetry.emit(Stage.HTTP_REQUEST, started, Outcome.SUCCESS, sent == null ? 0 : sent.get(), redirects);
+                    return response;
+                } catch (HttpException ex) {
+                    PushServerCircuitBreaker.record(endpointURL, ex);
+                    if (!PushServerRedirects.isRedirect(ex.getStatusCode()) || redirects >= PushServerRedirects.MAX_REDIRECTS) {
+                        throw ex;
+                    }
+                    Log.w(TAG, ex.getMessage());
+
+                    String endpoint = metrics ? metricsEndpoint : registryDeviceEndpoint;
+                    String requestPath = resourceId == null ? endpoint : endpoint + "/" + resourceId;
+                    URL requestURL = resourceId == null ? endpointURL : UrlUtils.appendToBaseURL(endpointURL, resourceId);
+                    URL location = PushServerRedirects.location(ex, requestURL);
+                    URL movedTo = PushServerRedirects.baseOf(location, requestPath);
+
+                    if (movedTo != null) {
+                        deviceRegistryURL = UrlUtils.appendToBaseURL(movedTo, registryDeviceEndpoint);
+                        metricsURL = UrlUtils.appendToBaseURL(movedTo, metricsEndpoint);
+                        if (context != null && PushServerRedirects.isPermanent(ex.getStatusCode())) {
+                            PushServerRedirects.remember(preferenceProvider.get(context.getApplicationContext()), pushServerURL, movedTo);
+                        }
+                    } else if (resourceId == null && !metrics) {
+                        deviceRegistryURL = location;
+                    } else {
+                        throw ex;
+                    }
                 } catch (Exception ex) {
-                    return ex;
+                    PushServerCircuitBreaker.record(endpointURL, ex);
+                    throw ex;
+                }
+            }
+        } catch (Exception ex) {
+            PushTelemetry.emit(Stage.HTTP_REQUEST, started, PushTelemetry.outcomeOf(ex), sent == null ? 0 : sent.get(), redirects);
+            throw ex;
+        }
+    }
+
+    /**
+     * Fetches the token within deadline and reports how long the fetch
+     * itself took to {@link PushTelemetry}, leaving out the time an
+     * operation then waits for the registration executor.
+     */
+    private Task<String> timedFetchToken(Context context, Deadline deadline) {
+        final long fetching = System.nanoTime();
+        Task<String> token = deadline.bound(fetchToken(context), "Token fetch");
+        if (PushTelemetry.isEnabled()) {
+            token.addOnCompleteListener(DIRECT, new OnCompleteListener<String>() {
+                @Override
+                public void onComplete(Task<String> completed) {
+                    PushTelemetry.emit(Stage.TOKEN_FETCH, fetching, PushTelemetry.outcomeOf(completed.getException()), 0, 0);
                 }
+            });
+        }
+        return token;
+    }
 
+    /**
+     * Requests a token for the sender id from Firebase. The request blocks a
+     * worker thread, but nothing waits for it longer than deadline.
+     */
+    private Task<String> requestToken(Deadline deadline) {
+        final FirebaseInstanceId instanceId = this.instanceId;
+        return deadline.bound(Tasks.call(WORKER, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return instanceId.getToken(senderId, FirebaseMessaging.INSTANCE_ID_SCOPE);
             }
+        }), "Token fetch");
+    }
 
-            @SuppressWarnings("unchecked")
+    /**
+     * Fetches the token shared by every registrar of this process without
+     * blocking a thread while Firebase loads it.
+     */
+    private Task<String> fetchToken(Context context) {
+        try {
+            if (instanceId == null) {
+                instanceId = firebaseInstanceIdProvider.get(context);
+            }
+            return FCMTokenCache.getToken(instanceId);
+        } catch (Exception ex) {
+            return Tasks.forException(ex);
+        }
+    }
+
+    /**
+     * Completes a callback on the main thread once task is done, the way
+     * AsyncTask.onPostExecute used to.
+     */
+    private static <R, T> void deliver(Task<R> task, final Callback<T> callback, final T result) {
+        task.addOnCompleteListener(new OnCompleteListener<R>() {
             @Override
-            protected void onPostExecute(Exception result) {
-                if (result == null) {
-                    callback.onSuccess(metricsMessage);
+            public void onComplete(Task<R> completed) {
+                if (completed.isSuccessful()) {
+                    callback.onSuccess(result);
                 } else {
-                    callback.onFailure(result);
+                    callback.onFailure(completed.getException());
                 }
             }
+        });
+    }
 
-        }.execute((Void) null);
+    /**
+     * Completes a callback with the result of task on the main thread.
+     */
+    private static <T> void deliver(Task<T> task, final Callback<T> callback) {
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(Task<T> completed) {
+                if (completed.isSuccessful()) {
+                    callback.onSuccess(completed.getResult());
+                } else {
+                    callback.onFailure(completed.getException());
+                }
+            }
+        });
     }
 
-    public void setPasswordAuthentication(final String username, final String password, final HttpProvider provider) {
-        provider.setDefaultHeader(BASIC_HEADER, getHashedAuth(username, password.toCharArray()));
+    /**
+     * Counts an operation as pending until task is done and remembers the
+     * outcome of registrations for {@link #dump(PrintWriter)}. The operation
+     * is only reported to {@link PushTelemetry} if telemetry is enabled when
+     * it completes.
+     */
+    private <T> Task<T> track(final Stage stage, final long started, Task<T> task) {
+        final AtomicInteger pending = stage == Stage.METRICS ? pendingMetrics : pendingOperations;
+        pending.incrementAndGet();
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(Task<T> completed) {
+                pending.decrementAndGet();
+                Outcome outcome = PushTelemetry.outcomeOf(completed.getException());
+                if (stage == Stage.REGISTRATION) {
+                    lastRegistrationTime = System.currentTimeMillis();
+                    lastRegistrationOutcome = outcome;
+                }
+                if (PushTelemetry.isEnabled()) {
+                    PushTelemetry.emit(stage, started, outcome, 0, 0);
+                }
+            }
+        });
+        return task;
     }
 
-    private String getHashedAuth(String username, char[] password) {
-        StringBuilder headerValueBuilder = new StringBuilder(AUTHORIZATION_METHOD).append(" ");
-        String unhashedCredentials = new StringBuilder(username).append(":").append(password).toString();
-        String hashedCrentials = Base64.encodeToString(unhashedCredentials.getBytes(), Base64.DEFAULT | Base64.NO_WRAP);
-        return headerValueBuilder.append(hashedCrentials).toString();
+    /**
+     * Prints the state of this registrar for dumpsys. The token, the secret
+     * and any credentials in the push server URL are left out.
+     *
+     * @param writer where to print
+     */
+    void dump(PrintWriter writer) {
+        writer.println("    pushServerURL: " + withoutUserInfo(pushServerURL));
+        writer.println("    variantId: " + variantId);
+        writer.println("    registered: " + (deviceToken != null && !deviceToken.isEmpty()));
+        writer.println("    categories: " + categories.size());
+        long time = lastRegistrationTime;
+        if (time == 0) {
+            writer.println("    last registration: never");
+        } else {
+            writer.println("    last registration: " + lastRegistrationOutcome + " at "
+                    + DateFormat.format("yyyy-MM-dd HH:mm:ss", time));
+        }
+        long prewarmEstimate = lastPrewarmEstimate;
+        writer.println("    prewarm, cold minus warm HEAD (estimate of latency saved): "
+                + (prewarmEstimate < 0 ? "not run" : prewarmEstimate + "ms"));
+        writer.println("    pending operations: " + pendingOperations.get());
+        writer.println("    pending metrics: " + pendingMetrics.get());
+    }
+
+    private static String withoutUserInfo(URL url) {
+        if (url.getUserInfo() == null) {
+            return url.toString();
+        }
+        return url.toString().replace(url.getUserInfo() + "@", "");
+    }
+
+    public void setPasswordAuthentication(final String username, final String password, final HttpProvider provider) {
+        UnifiedPushCredentials.authenticate(UnifiedPushCredentials.basic(username, password), provider);
     }
 
     /**
@@ -369,9 +867,11 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
      * @param appContext the application Context
      */
     private void presistPostInformation(Context appContext, JsonObject postData) {
-        preferenceProvider.get(appContext).edit()
+        long started = System.nanoTime();
+        boolean committed = preferenceProvider.get(appContext).edit()
                 .putString(String.format(REGISTRAR_PREFERENCE_TEMPLATE, senderId), postData.toString())
                 .commit();
+        PushTelemetry.emit(Stage.PREFERENCES_COMMIT, started, committed ? Outcome.SUCCESS : Outcome.FAILURE, 0, 0);
     }
 
     /**
@@ -381,22 +881,40 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
      * @param appContext the application Context
      */
     private void removeSavedPostData(Context appContext) {
-        preferenceProvider.get(appContext).edit()
+        long started = System.nanoTime();
+        boolean committed = preferenceProvider.get(appContext).edit()
                 .remove(String.format(REGISTRAR_PREFERENCE_TEMPLATE, senderId))
                 .commit();
+        PushTelemetry.emit(Stage.PREFERENCES_COMMIT, started, committed ? Outcome.SUCCESS : Outcome.FAILURE, 0, 0);
     }
 
     /**
-     * Returns the most recently used deviceToken 
-     * @return a deviceToken or an empty string
+     * Returns the post saved by the last registration
+     * @return the saved post or null
      */
-    private String getOldToken(Context appContext) {
+    private JsonObject getSavedPostData(Context appContext) {
         String jsonData = preferenceProvider.get(appContext).getString(String.format(REGISTRAR_PREFERENCE_TEMPLATE, senderId), "");
         if (jsonData.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new JsonParser().parse(jsonData).getAsJsonObject();
+        } catch (Exception ignore) {
+            Log.w(TAG, ignore.getMessage(), ignore);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the most recently used deviceToken 
+     * @return a deviceToken or an empty string
+     */
+    private String getOldToken(JsonObject jsonedPreferences) {
+        if (jsonedPreferences == null) {
             return "";
         }
         
-        JsonObject jsonedPreferences = new JsonParser().parse(jsonData).getAsJsonObject();
         try {
             return jsonedPreferences.get("deviceToken").getAsString();
         } catch (Exception ignore) {
@@ -408,4 +926,13 @@ public class AeroGearFCMPushRegistrar implements PushRegistrar, MetricsSender<Un
         
     }
 
+    /**
+     * A single request to the push server.
+     */
+    private interface Request {
+
+        HeaderAndBody send(HttpProvider provider) throws Exception;
+
+    }
+
 }
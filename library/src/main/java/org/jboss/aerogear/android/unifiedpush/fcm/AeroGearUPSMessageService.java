@@ -22,26 +22,39 @@ import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.util.Base64;
 import android.util.Log;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
 
 import org.jboss.aerogear.android.core.Provider;
+import org.jboss.aerogear.android.pipe.http.HttpException;
 import org.jboss.aerogear.android.pipe.http.HttpProvider;
 import org.jboss.aerogear.android.pipe.http.HttpRestProvider;
+import org.jboss.aerogear.android.pipe.util.UrlUtils;
 import org.jboss.aerogear.android.unifiedpush.MessageHandler;
 
 import com.google.firebase.messaging.RemoteMessage;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jboss.aerogear.android.unifiedpush.DeliveryLatencyStats;
+import org.jboss.aerogear.android.unifiedpush.LatencyHistogram;
+import org.jboss.aerogear.android.unifiedpush.MessageHandlerStats;
+import org.jboss.aerogear.android.unifiedpush.PushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetry;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Outcome;
+import org.jboss.aerogear.android.unifiedpush.PushTelemetryListener.Stage;
 import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
 
 import static org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar.REGISTRAR_PREFERENCE_PATTERN;
@@ -65,10 +78,11 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
     public static final String DEFAULT_MESSAGE_HANDLER_KEY = "DEFAULT_MESSAGE_HANDLER_KEY";
 
 
-    private final static String BASIC_HEADER = "Authorization";
-    private final static String AUTHORIZATION_METHOD = "Basic";
-
-    private static final Integer TIMEOUT = 30000;// 30 seconds
+    /**
+     * FCM gives onNewToken about 10 seconds, all refresh requests share what
+     * is left of them.
+     */
+    private static final long TOKEN_REFRESH_TIMEOUT = 9000;// 9 seconds
 
     private final Provider<SharedPreferences> sharedPreferencesProvider = new FCMSharedPreferenceProvider();
 
@@ -88,13 +102,7 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
 
     public void onMessageReceived(RemoteMessage remoteMessage) {
 
-        Map<String, String> messageMap = remoteMessage.getData();
-
-        Bundle message = new Bundle();
-
-        for (Map.Entry<String, String> messageMapEntry : messageMap.entrySet()) {
-            message.putString(messageMapEntry.getKey(), messageMapEntry.getValue());
-        }
+        Bundle message = toBundle(remoteMessage);
 
         if (checkDefaultHandler) {
             checkDefaultHandler = false;
@@ -118,6 +126,24 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
         RegistrarManager.notifyHandlers(getApplicationContext(), message, defaultHandler);
     }
 
+    /**
+     * Copies the data and delivery details of a FCM message into the Bundle
+     * given to MessageHandlers.
+     */
+    static Bundle toBundle(RemoteMessage remoteMessage) {
+        Map<String, String> messageMap = remoteMessage.getData();
+
+        Bundle message = new Bundle();
+
+        for (Map.Entry<String, String> messageMapEntry : messageMap.entrySet()) {
+            message.putString(messageMapEntry.getKey(), messageMapEntry.getValue());
+        }
+        message.putLong(UnifiedPushMessage.SENT_TIME_KEY, remoteMessage.getSentTime());
+        message.putInt(UnifiedPushMessage.PRIORITY_KEY, remoteMessage.getPriority());
+        message.putInt(UnifiedPushMessage.ORIGINAL_PRIORITY_KEY, remoteMessage.getOriginalPriority());
+        return message;
+    }
+
     private Bundle getMetadata(Context context) {
         try {
             final ComponentName componentName = new ComponentName(context, AeroGearUPSMessageService.class);
@@ -144,6 +170,9 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
      */
     public void onNewToken(String token) {
 
+        FCMTokenCache.onNewToken(token);
+        Deadline deadline = Deadline.after(TOKEN_REFRESH_TIMEOUT);
+
         SharedPreferences sharedPreferences = sharedPreferencesProvider.get(this);
 
         Map<String, ?> preferences = sharedPreferences.getAll();
@@ -151,6 +180,9 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
         for (Map.Entry<String, ?> preference : preferences.entrySet()) {
             if (preference.getKey().matches(REGISTRAR_PREFERENCE_PATTERN)) {
 
+                long refreshStarted = System.nanoTime();
+                int redirects = 0;
+                AtomicLong sent = new AtomicLong();
                 try {
 
                     JsonObject oldPostData = new JsonParser().parse(preference.getValue().toString()).getAsJsonObject();
@@ -162,38 +194,73 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
                         Log.w(TAG, exception.getMessage(), exception);
                     }
                     URL deviceRegistryURL = new URL(oldPostData.get("deviceRegistryURL").getAsString());
-                    String variantId = oldPostData.get("variantId").getAsString();
-                    String secret = oldPostData.get("secret").getAsString();
-
-                    HttpProvider httpProvider = httpProviderProvider.get(deviceRegistryURL, TIMEOUT);
-
-                    httpProvider.setDefaultHeader("x-ag-old-token", oldToken);
-
-                    setPasswordAuthentication(variantId, secret, httpProvider);
-
-                    JsonObject postData = new JsonObject();
-                    if (oldPostData.has("deviceType") && !oldPostData.get("deviceType").isJsonNull()) {
-                        postData.addProperty("deviceType", oldPostData.get("deviceType").getAsString());
+                    URL pushServerURL = null;
+                    if (oldPostData.has("pushServerURL") && !oldPostData.get("pushServerURL").isJsonNull()) {
+                        pushServerURL = new URL(oldPostData.get("pushServerURL").getAsString());
+                        URL resolved = PushServerRedirects.resolve(sharedPreferences, pushServerURL);
+                        deviceRegistryURL = UrlUtils.appendToBaseURL(resolved, AeroGearFCMPushRegistrar.registryDeviceEndpoint);
                     }
-                    postData.addProperty("deviceToken", token);
-
-                    if (oldPostData.has("alias") && !oldPostData.get("alias").isJsonNull()) {
-                        postData.addProperty("alias", oldPostData.get("alias").getAsString());
-                    }
-                    if (oldPostData.has("operatingSystem") && !oldPostData.get("operatingSystem").isJsonNull()) {
-                        postData.addProperty("operatingSystem", oldPostData.get("operatingSystem").getAsString());
+                    String variantId = oldPostData.get("variantId").getAsString();
+                    String secret = null;
+                    if (oldPostData.has("secret") && !oldPostData.get("secret").isJsonNull()) {
+                        secret = oldPostData.get("secret").getAsString();
                     }
-                    if (oldPostData.has("osVersion") && !oldPostData.get("osVersion").isJsonNull()) {
-                        postData.addProperty("osVersion", oldPostData.get("osVersion").getAsString());
+                    PushServerCredentials credentials;
+                    try {
+                        credentials = UnifiedPushCredentials.forVariant(variantId, secret);
+                    } catch (IllegalStateException ex) {
+                        // Custom credentials are not saved, and no registrar of this process set them yet
+                        PushTelemetry.emit(Stage.TOKEN_REFRESH, refreshStarted, Outcome.FAILURE, sent.get(), redirects);
+                        Log.e(TAG, "Token refresh skipped: " + ex.getMessage()
+                                + ". Set the credentials with UnifiedPushCredentials.setCredentials when the application starts");
+                        continue;
                     }
-                    if (oldPostData.has("categories") && !oldPostData.get("categories").isJsonNull()) {
-                        postData.add("categories", oldPostData.get("categories").getAsJsonArray());
+                    int compressionThreshold = RequestCompression.DISABLED;
+                    if (oldPostData.has("requestCompressionThreshold")) {
+                        compressionThreshold = oldPostData.get("requestCompressionThreshold").getAsInt();
                     }
 
-                    httpProvider.post(postData.toString());
+                    String body = refreshedPostData(oldPostData, token).toString();
+                    for (;; redirects++) {
+                        int timeout = deadline.requestTimeout("Token refresh");
+                        // See PushServerCircuitBreaker.check for recording the outcome
+                        PushServerCircuitBreaker.check(deviceRegistryURL);
+                        try {
+                            HttpProvider httpProvider = httpProviderProvider.get(deviceRegistryURL, timeout);
+                            httpProvider.setDefaultHeader("x-ag-old-token", oldToken);
+                            UnifiedPushCredentials.authenticate(credentials, httpProvider);
+                            RequestCompression.post(httpProvider, body, compressionThreshold, sent);
+                            PushServerCircuitBreaker.record(deviceRegistryURL, null);
+                            break;
+                        } catch (HttpException ex) {
+                            PushServerCircuitBreaker.record(deviceRegistryURL, ex);
+                            if (!PushServerRedirects.isRedirect(ex.getStatusCode()) || redirects >= PushServerRedirects.MAX_REDIRECTS) {
+                                throw ex;
+                            }
+                            Log.w(TAG, ex.getMessage());
+                            URL location = PushServerRedirects.location(ex, deviceRegistryURL);
+                            URL movedTo = PushServerRedirects.baseOf(location, AeroGearFCMPushRegistrar.registryDeviceEndpoint);
+                            if (pushServerURL != null && movedTo != null && PushServerRedirects.isPermanent(ex.getStatusCode())) {
+                                PushServerRedirects.remember(sharedPreferences, pushServerURL, movedTo);
+                            }
+                            deviceRegistryURL = location;
+                        } catch (Exception ex) {
+                            PushServerCircuitBreaker.record(deviceRegistryURL, ex);
+                            throw ex;
+                        }
+                    }
+                    PushTelemetry.emit(Stage.TOKEN_REFRESH, refreshStarted, Outcome.SUCCESS, sent.get(), redirects);
 
                 } catch (IOException ex) {
+                    PushTelemetry.emit(Stage.TOKEN_REFRESH, refreshStarted, Outcome.FAILURE, sent.get(), redirects);
                     Log.e(TAG, ex.getMessage(), ex);
+                } catch (TimeoutException ex) {
+                    PushTelemetry.emit(Stage.TOKEN_REFRESH, refreshStarted, Outcome.TIMEOUT, sent.get(), redirects);
+                    Log.e(TAG, ex.getMessage(), ex);
+                    return;
+                } catch (HttpException ex) {
+                    PushTelemetry.emit(Stage.TOKEN_REFRESH, refreshStarted, Outcome.FAILURE, sent.get(), redirects);
+                    throw ex;
                 }
 
             }
@@ -201,14 +268,85 @@ public class AeroGearUPSMessageService extends FirebaseMessagingService {
 
     }
 
-    private void setPasswordAuthentication(final String username, final String password, final HttpProvider provider) {
-        provider.setDefaultHeader(BASIC_HEADER, getHashedAuth(username, password.toCharArray()));
+    /**
+     * Builds the registration payload of a saved registration record for a
+     * new token.
+     */
+    static JsonObject refreshedPostData(JsonObject oldPostData, String token) {
+        JsonObject postData = new JsonObject();
+        if (oldPostData.has("deviceType") && !oldPostData.get("deviceType").isJsonNull()) {
+            postData.addProperty("deviceType", oldPostData.get("deviceType").getAsString());
+        }
+        postData.addProperty("deviceToken", token);
+
+        if (oldPostData.has("alias") && !oldPostData.get("alias").isJsonNull()) {
+            postData.addProperty("alias", oldPostData.get("alias").getAsString());
+        }
+        if (oldPostData.has("operatingSystem") && !oldPostData.get("operatingSystem").isJsonNull()) {
+            postData.addProperty("operatingSystem", oldPostData.get("operatingSystem").getAsString());
+        }
+        if (oldPostData.has("osVersion") && !oldPostData.get("osVersion").isJsonNull()) {
+            postData.addProperty("osVersion", oldPostData.get("osVersion").getAsString());
+        }
+        if (oldPostData.has("categories") && !oldPostData.get("categories").isJsonNull()) {
+            postData.add("categories", oldPostData.get("categories").getAsJsonArray());
+        }
+        return postData;
     }
 
-    private String getHashedAuth(String username, char[] password) {
-        StringBuilder headerValueBuilder = new StringBuilder(AUTHORIZATION_METHOD).append(" ");
-        String unhashedCredentials = new StringBuilder(username).append(":").append(password).toString();
-        String hashedCrentials = Base64.encodeToString(unhashedCredentials.getBytes(), Base64.DEFAULT | Base64.NO_WRAP);
-        return headerValueBuilder.append(hashedCrentials).toString();
+    /**
+     * Prints the state of the push subsystem for
+     * <code>adb shell dumpsys activity service AeroGearUPSMessageService</code>.
+     * Tokens, secrets and credentials are never printed.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Registrars:");
+        for (String name : RegistrarManager.getRegistrarNames()) {
+            PushRegistrar registrar = RegistrarManager.getRegistrar(name);
+            writer.println("  " + name + ": " + (registrar == null ? null : registrar.getClass().getSimpleName()));
+            if (registrar instanceof AeroGearFCMPushRegistrar) {
+                ((AeroGearFCMPushRegistrar) registrar).dump(writer);
+            }
+        }
+
+        long tokenAge = FCMTokenCache.tokenAgeMillis();
+        writer.println("Token age: " + (tokenAge < 0 ? "no token" : tokenAge / 1000 + "s"));
+
+        List<MessageHandlerStats> handlers = RegistrarManager.getMessageHandlerStats();
+        long inFlight = 0;
+        for (MessageHandlerStats stats : handlers) {
+            inFlight += stats.getInFlight();
+        }
+        writer.println("Handlers in flight: " + inFlight);
+        writer.println("Retry queue (open circuit breakers):");
+        PushServerCircuitBreaker.dump(writer);
+        writer.println("Dedup cache: none, messages are not deduplicated");
+
+        writer.println("Handlers (latency p50/p90/p99 ms):");
+        for (MessageHandlerStats stats : handlers) {
+            writer.println("  " + stats.getHandlerName()
+                    + ": invocations=" + stats.getInvocations()
+                    + " failures=" + stats.getFailures()
+                    + " slow=" + stats.getSlowInvocations()
+                    + " inFlight=" + stats.getInFlight()
+                    + " latency=" + percentiles(stats.getLatency()));
+        }
+
+        DeliveryLatencyStats delivery = RegistrarManager.getDeliveryLatencyStats();
+        writer.println("Delivery: received=" + delivery.getReceived()
+                + " deprioritized=" + delivery.getDeprioritized());
+        writer.println("  send to receive: " + percentiles(delivery.getSendToReceive()));
+        writer.println("  receive to handled: " + percentiles(delivery.getReceiveToHandled()));
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "-";
+        }
+        return histogram.getPercentileMicros(50) / 1000 + "/"
+                + histogram.getPercentileMicros(90) / 1000 + "/"
+                + histogram.getPercentileMicros(99) / 1000;
     }
+
 }
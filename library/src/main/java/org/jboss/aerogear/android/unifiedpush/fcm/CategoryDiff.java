@@ -0,0 +1,96 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The categories added and removed between two sets of categories.
+ *
+ * Computing a diff is linear in the size of both sets.
+ */
+public final class CategoryDiff {
+
+    private final List<String> added;
+    private final List<String> removed;
+
+    private CategoryDiff(List<String> added, List<String> removed) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @param previous the earlier categories
+     * @param current the later categories
+     * @return the categories in current but not previous, and the other way
+     *         round, each in iteration order of their source
+     */
+    public static CategoryDiff between(Collection<String> previous, Collection<String> current) {
+        Set<String> previousSet = asSet(previous);
+        Set<String> currentSet = asSet(current);
+
+        List<String> added = new ArrayList<String>();
+        for (String category : currentSet) {
+            if (!previousSet.contains(category)) {
+                added.add(category);
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String category : previousSet) {
+            if (!currentSet.contains(category)) {
+                removed.add(category);
+            }
+        }
+
+        return new CategoryDiff(added, removed);
+    }
+
+    /**
+     * @return the categories which were added
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the categories which were removed
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if nothing was added or removed
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    private static Set<String> asSet(Collection<String> categories) {
+        if (categories instanceof Set) {
+            return (Set<String>) categories;
+        }
+        return new LinkedHashSet<String>(categories);
+    }
+
+}
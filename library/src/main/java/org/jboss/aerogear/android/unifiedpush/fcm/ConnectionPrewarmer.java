@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens a connection to the push server ahead of the first real request.
+ *
+ * HttpURLConnection keeps idle keep-alive connections in a process wide pool
+ * and TLS sessions in the default SSLSocketFactory's session cache, so once
+ * a request to the push server has completed the DNS lookup, the TCP
+ * connection and the TLS session are reused by the registration and metrics
+ * requests which follow.
+ *
+ * The requests go through {@link PushServerCircuitBreaker} like any other, so
+ * a push server which answered 429 or 503 is left alone.
+ */
+final class ConnectionPrewarmer {
+
+    private static final int BUFFER_SIZE = 512;
+
+    private ConnectionPrewarmer() {
+    }
+
+    /**
+     * Sends two HEAD requests to url, the first one setting up the
+     * connection and the second one reusing it.
+     *
+     * The difference between the two is only an estimate of what the warm
+     * connection saves a real request: the HEAD requests are sent without
+     * HttpProvider and without credentials, and the server may answer them
+     * faster or slower than a registration.
+     *
+     * @param url the URL to warm up
+     * @param deadline the deadline both requests share
+     * @return the milliseconds the first request took longer than the second
+     * @throws IOException if the push server can not be reached or is
+     *             unavailable
+     * @throws TimeoutException if the deadline passes before a request starts
+     */
+    static long prewarm(URL url, Deadline deadline) throws IOException, TimeoutException {
+        long cold = head(url, deadline);
+        long warm = head(url, deadline);
+        return Math.max(0, cold - warm);
+    }
+
+    private static long head(URL url, Deadline deadline) throws IOException, TimeoutException {
+        int timeout = deadline.requestTimeout("Prewarm request");
+        // See PushServerCircuitBreaker.check for recording the outcome
+        PushServerCircuitBreaker.check(url);
+        long start = SystemClock.elapsedRealtime();
+        boolean answered = false;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            // Any status will do, the request is only sent for its connection
+            int status = connection.getResponseCode();
+            PushServerCircuitBreaker.record(url, status,
+                    Collections.singletonMap("Retry-After", connection.getHeaderField("Retry-After")));
+            answered = true;
+            // The connection only goes back to the pool once the body is read
+            InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                drain(body);
+            }
+        } finally {
+            if (!answered) {
+                PushServerCircuitBreaker.release(url);
+            }
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (body.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The time an operation has left.
+ *
+ * One deadline is started per operation and handed through its steps, so
+ * time a slow step spends is taken from the steps after it instead of each
+ * step getting a timeout of its own.
+ */
+final class Deadline {
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param millis the time the operation may take
+     * @return a deadline millis from now
+     */
+    static Deadline after(long millis) {
+        return new Deadline(SystemClock.elapsedRealtime() + millis);
+    }
+
+    /**
+     * @return the milliseconds left, 0 once the deadline has passed
+     */
+    long remaining() {
+        return Math.max(0, expiresAt - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param step the step about to start
+     * @return the milliseconds left, usable as a connect or read timeout
+     * @throws TimeoutException if the deadline has passed
+     */
+    int remainingTimeout(String step) throws TimeoutException {
+        long remaining = remaining();
+        if (remaining == 0) {
+            throw new TimeoutException(step + " did not start before the deadline");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * HttpURLConnection applies its timeout to connecting and to reading
+     * separately, so each gets half the time left and the request as a
+     * whole still ends by the deadline.
+     *
+     * @param step the request about to start
+     * @return the milliseconds usable as the connect and the read timeout
+     * @throws TimeoutException if the deadline has passed
+     */
+    int requestTimeout(String step) throws TimeoutException {
+        return Math.max(1, remainingTimeout(step) / 2);
+    }
+
+    /**
+     * @param task a step which can not be given a timeout itself
+     * @param step the name of the step
+     * @return a task completing like task, or failing with a
+     *         TimeoutException once the deadline passes
+     */
+    <T> Task<T> bound(Task<T> task, final String step) {
+        if (task.isComplete()) {
+            return task;
+        }
+
+        final TaskCompletionSource<T> source = new TaskCompletionSource<>();
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                source.trySetException(new TimeoutException(step + " did not finish before the deadline"));
+            }
+        };
+        MAIN.postDelayed(expire, remaining());
+
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(Task<T> completed) {
+                MAIN.removeCallbacks(expire);
+                if (completed.isSuccessful()) {
+                    source.trySetResult(completed.getResult());
+                } else if (completed.getException() != null) {
+                    source.trySetException(completed.getException());
+                } else {
+                    source.trySetException(new IllegalStateException(step + " was cancelled"));
+                }
+            }
+        });
+        return source.getTask();
+    }
+
+}
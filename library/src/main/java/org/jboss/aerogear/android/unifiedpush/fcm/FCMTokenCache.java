@@ -0,0 +1,147 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.iid.FirebaseInstanceId;
+import com.google.firebase.iid.InstanceIdResult;
+
+/**
+ * Holds the FCM registration token of this process.
+ *
+ * The token belongs to the application instance, not to a variant, so every
+ * {@link AeroGearFCMPushRegistrar} shares it. At most one fetch is in flight
+ * at a time and all callers are completed by it. Nothing blocks while the
+ * fetch is running; callers are notified through the returned {@link Task}.
+ * The fetch has no timeout of its own, each caller bounds its wait by the
+ * deadline of its operation.
+ *
+ * {@link AeroGearUPSMessageService#onNewToken(String)} replaces the cached
+ * token and unregistering drops it.
+ */
+final class FCMTokenCache {
+
+    private static final Object LOCK = new Object();
+
+    private static String token;
+    private static long tokenSince;
+    private static Task<String> inFlight;
+    private static int generation;
+
+    private FCMTokenCache() {
+    }
+
+    /**
+     * Returns the cached token, or joins or starts a fetch of it.
+     *
+     * The task completes with null if Firebase has no token yet; callers
+     * should then request one for their sender id.
+     *
+     * @param instanceId the instance id to fetch the token from
+     *
+     * @return a task completed with the token
+     */
+    static Task<String> getToken(FirebaseInstanceId instanceId) {
+        final TaskCompletionSource<String> source;
+        final int fetchGeneration;
+
+        synchronized (LOCK) {
+            if (token != null) {
+                return Tasks.forResult(token);
+            }
+            if (inFlight != null) {
+                return inFlight;
+            }
+            source = new TaskCompletionSource<>();
+            inFlight = source.getTask();
+            fetchGeneration = generation;
+        }
+
+        instanceId.getInstanceId().addOnCompleteListener(new OnCompleteListener<InstanceIdResult>() {
+            @Override
+            public void onComplete(Task<InstanceIdResult> task) {
+                if (task.isSuccessful()) {
+                    String fetched = task.getResult().getToken();
+                    synchronized (LOCK) {
+                        if (fetchGeneration == generation && fetched != null) {
+                            token = fetched;
+                            tokenSince = SystemClock.elapsedRealtime();
+                        }
+                    }
+                    clearInFlight(fetchGeneration, source.getTask());
+                    source.trySetResult(fetched);
+                } else {
+                    clearInFlight(fetchGeneration, source.getTask());
+                    Exception exception = task.getException();
+                    source.trySetException(exception != null ? exception : new IllegalStateException("Could not fetch the FCM token"));
+                }
+            }
+        });
+
+        return source.getTask();
+    }
+
+    /**
+     * Replaces the cached token with one delivered by Firebase. A fetch which
+     * is still in flight will not overwrite it.
+     *
+     * @param newToken the new token
+     */
+    static void onNewToken(String newToken) {
+        synchronized (LOCK) {
+            generation++;
+            token = newToken;
+            tokenSince = SystemClock.elapsedRealtime();
+            inFlight = null;
+        }
+    }
+
+    /**
+     * @return the milliseconds since the cached token was fetched or
+     *         delivered, -1 if there is none
+     */
+    static long tokenAgeMillis() {
+        synchronized (LOCK) {
+            return token == null ? -1 : SystemClock.elapsedRealtime() - tokenSince;
+        }
+    }
+
+    /**
+     * Drops the cached token, for instance after the instance id was deleted.
+     */
+    static void invalidate() {
+        synchronized (LOCK) {
+            generation++;
+            token = null;
+            inFlight = null;
+        }
+    }
+
+    private static void clearInFlight(int fetchGeneration, Task<String> task) {
+        synchronized (LOCK) {
+            if (fetchGeneration == generation && inFlight == task) {
+                inFlight = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads and parses JSON push configuration files from the application's
+ * assets.
+ *
+ * Files are read as a stream, decoded as UTF-8 and parsed once per file name
+ * for the life of the process. Concurrent callers asking for the same file
+ * share a single read. Failed loads are not cached, so a missing or broken
+ * file is reported every time it is asked for.
+ *
+ * The {@link JSONObject} instances returned are shared and must be treated
+ * as read only.
+ *
+ * A file may either hold a single configuration
+ *
+ * <pre>
+ * {
+ *   "pushServerURL": "...",
+ *   "android": { "senderID": "...", "variantID": "...", "variantSecret": "..." }
+ * }
+ * </pre>
+ *
+ * or many named ones, each of which may override the pushServerURL
+ *
+ * <pre>
+ * {
+ *   "pushServerURL": "...",
+ *   "variants": {
+ *     "production": { "android": { ... } },
+ *     "staging": { "pushServerURL": "...", "android": { ... } }
+ *   }
+ * }
+ * </pre>
+ *
+ * Named configurations are only validated and turned into
+ * {@link PushConfigValues} when they are asked for.
+ */
+public final class PushConfigLoader {
+
+    private static final String JSON_VARIANTS = "variants";
+    private static final String JSON_OBJECT = "android";
+    private static final String JSON_URL = "pushServerURL";
+    private static final String JSON_SENDER_ID = "senderID";
+    private static final String JSON_VARIANT_ID = "variantID";
+    private static final String JSON_VARIANT_SECRET = "variantSecret";
+
+    /**
+     * Key of the values of a file which holds a single configuration.
+     */
+    private static final String DEFAULT_VARIANT = "";
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private static final ConcurrentMap<String, FutureTask<JSONObject>> CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, PushConfigValues>> VALUES = new ConcurrentHashMap<>();
+
+    private PushConfigLoader() {
+    }
+
+    /**
+     * Loads and parses a file from assets, blocking the calling thread until
+     * it is available. Returns immediately if the file was already parsed.
+     *
+     * @param context your application's context
+     * @param fileName the name of the file in assets
+     *
+     * @return the parsed file
+     *
+     * @throws IOException if the file can not be read
+     * @throws JSONException if the file is not a JSON object
+     */
+    public static JSONObject load(Context context, String fileName) throws IOException, JSONException {
+        FutureTask<JSONObject> task = taskFor(context, fileName);
+        task.run(); // no-op if another caller already ran it
+        return await(fileName, task);
+    }
+
+    /**
+     * Starts loading a file from assets on a background thread. This is meant
+     * to be called during application startup so the file is ready by the
+     * time a configuration needs it.
+     *
+     * @param context your application's context
+     * @param fileName the name of the file in assets
+     *
+     * @return a future of the parsed file
+     */
+    public static Future<JSONObject> loadAsync(Context context, String fileName) {
+        FutureTask<JSONObject> task = taskFor(context, fileName);
+        if (!task.isDone()) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Drops the cached copy of a file so the next load reads it again.
+     *
+     * @param fileName the name of the file in assets
+     */
+    public static void evict(String fileName) {
+        CACHE.remove(fileName);
+        VALUES.remove(fileName);
+    }
+
+    /**
+     * Lists the names of the configurations in a file holding many.
+     *
+     * @param context your application's context
+     * @param fileName the name of the file in assets
+     *
+     * @return the names in file order, empty if the file holds a single
+     *         configuration
+     *
+     * @throws IOException if the file can not be read
+     * @throws JSONException if the file is not a JSON object
+     */
+    public static Set<String> variantNames(Context context, String fileName) throws IOException, JSONException {
+        JSONObject variants = load(context, fileName).optJSONObject(JSON_VARIANTS);
+        if (variants == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> names = new LinkedHashSet<>();
+        Iterator<String> keys = variants.keys();
+        while (keys.hasNext()) {
+            names.add(keys.next());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Loads the values of a configuration. Only the requested configuration
+     * is validated, and the result is cached alongside the parsed file.
+     *
+     * @param context your application's context
+     * @param fileName the name of the file in assets
+     * @param variantName the name of a configuration in the "variants" object
+     *            or null if the file holds a single configuration
+     *
+     * @return the values of the configuration
+     *
+     * @throws IOException if the file can not be read
+     * @throws JSONException if the file or the configuration is malformed
+     * @throws IllegalArgumentException if there is no configuration named
+     *             variantName
+     */
+    public static PushConfigValues loadValues(Context context, String fileName, String variantName) throws IOException, JSONException {
+        String key = variantName == null ? DEFAULT_VARIANT : variantName;
+
+        ConcurrentMap<String, PushConfigValues> fileValues = VALUES.get(fileName);
+        if (fileValues != null) {
+            PushConfigValues values = fileValues.get(key);
+            if (values != null) {
+                return values;
+            }
+        }
+
+        JSONObject pushConfig = load(context, fileName);
+        PushConfigValues values;
+        if (variantName == null) {
+            values = materialize(pushConfig, pushConfig.getString(JSON_URL));
+        } else {
+            JSONObject variants = pushConfig.getJSONObject(JSON_VARIANTS);
+            JSONObject variant = variants.optJSONObject(variantName);
+            if (variant == null) {
+                throw new IllegalArgumentException("There is no variant named " + variantName + " in " + fileName);
+            }
+            String pushServerURL = variant.has(JSON_URL) ? variant.getString(JSON_URL) : pushConfig.getString(JSON_URL);
+            values = materialize(variant, pushServerURL);
+        }
+
+        if (fileValues == null) {
+            VALUES.putIfAbsent(fileName, new ConcurrentHashMap<String, PushConfigValues>());
+            fileValues = VALUES.get(fileName);
+        }
+        PushConfigValues existing = fileValues.putIfAbsent(key, values);
+        return existing == null ? values : existing;
+    }
+
+    private static PushConfigValues materialize(JSONObject config, String pushServerURL) throws JSONException {
+        JSONObject android = config.getJSONObject(JSON_OBJECT);
+        return new Values(pushServerURL,
+                android.getString(JSON_SENDER_ID),
+                android.getString(JSON_VARIANT_ID),
+                android.getString(JSON_VARIANT_SECRET));
+    }
+
+    private static FutureTask<JSONObject> taskFor(Context context, final String fileName) {
+        FutureTask<JSONObject> task = CACHE.get(fileName);
+        if (task != null) {
+            return task;
+        }
+
+        // The cached task outlives the caller, which may be an Activity
+        final Context applicationContext = context.getApplicationContext();
+        FutureTask<JSONObject> newTask = new FutureTask<JSONObject>(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return new JSONObject(read(applicationContext, fileName));
+            }
+        }) {
+            @Override
+            protected void setException(Throwable t) {
+                CACHE.remove(fileName, this);
+                super.setException(t);
+            }
+        };
+
+        task = CACHE.putIfAbsent(fileName, newTask);
+        return task == null ? newTask : task;
+    }
+
+    private static JSONObject await(String fileName, FutureTask<JSONObject> task) throws IOException, JSONException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + fileName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static String read(Context context, String fileName) throws IOException {
+        InputStream fileStream = context.getResources().getAssets().open(fileName);
+        try {
+            Reader reader = new InputStreamReader(fileStream, StandardCharsets.UTF_8);
+            StringBuilder json = new StringBuilder();
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+            if (json.length() > 0 && json.charAt(0) == BYTE_ORDER_MARK) {
+                json.deleteCharAt(0);
+            }
+            return json.toString();
+        } finally {
+            try {
+                fileStream.close();
+            } catch (IOException e) {
+                // Ignore IOException
+            }
+        }
+    }
+
+    private static final class Values implements PushConfigValues {
+
+        private final String pushServerURL;
+        private final String senderID;
+        private final String variantID;
+        private final String variantSecret;
+
+        Values(String pushServerURL, String senderID, String variantID, String variantSecret) {
+            this.pushServerURL = pushServerURL;
+            this.senderID = senderID;
+            this.variantID = variantID;
+            this.variantSecret = variantSecret;
+        }
+
+        @Override
+        public String getPushServerURL() {
+            return pushServerURL;
+        }
+
+        @Override
+        public String getSenderID() {
+            return senderID;
+        }
+
+        @Override
+        public String getVariantID() {
+            return variantID;
+        }
+
+        @Override
+        public String getVariantSecret() {
+            return variantSecret;
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+/**
+ * The connection values of a push-config.json file.
+ *
+ * {@link PushConfigLoader#loadValues(android.content.Context, String, String)}
+ * reads them from assets. The aerogear push-config Gradle plugin generates an implementation of this
+ * interface from push-config.json for every build variant so it can be handed
+ * to {@link org.jboss.aerogear.android.unifiedpush.RegistrarManager#config(String, PushConfigValues)}
+ * without reading or parsing assets at runtime.
+ */
+public interface PushConfigValues {
+
+    /**
+     * @return the URL of the UnifiedPush Server
+     */
+    String getPushServerURL();
+
+    /**
+     * @return the FCM sender Id
+     */
+    String getSenderID();
+
+    /**
+     * @return the ID of the Variant from the AeroGear UnifiedPush Server
+     */
+    String getVariantID();
+
+    /**
+     * @return the secret of the Variant from the AeroGear UnifiedPush Server
+     */
+    String getVariantSecret();
+
+}
@@ -0,0 +1,263 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.jboss.aerogear.android.pipe.http.HttpException;
+
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops requests to push servers which are overloaded or in maintenance.
+ *
+ * A 429 or 503 answer opens the breaker of the server's host for as long as
+ * its Retry-After header asks, or for a backoff doubling with every answer
+ * in a row if there is none. While the breaker is open every request to the
+ * host, from any registrar or from {@link AeroGearUPSMessageService}, fails
+ * locally with a {@link PushServerUnavailableException}. Once it closes a
+ * single request is let through, and the breaker only resets when the
+ * server answers it with anything but 429 or 503.
+ *
+ * Requests are sent synchronously, so the thread which passed
+ * {@link #check(URL)} owns the probe until it records the outcome, and
+ * only it can give the probe up after a failure without an answer.
+ */
+final class PushServerCircuitBreaker {
+
+    private static final String TAG = PushServerCircuitBreaker.class.getSimpleName();
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;//Too Many Requests not in HTTPUrlConnection
+    private static final long INITIAL_BACKOFF = 5000;
+    private static final long MAX_BACKOFF = 10 * 60 * 1000;
+    private static final long MAX_RETRY_AFTER = 24 * 60 * 60 * 1000;
+    private static final String HTTP_DATE_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static final ConcurrentMap<String, Breaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private PushServerCircuitBreaker() {
+    }
+
+    /**
+     * Throws if requests to the host of url are currently stopped.
+     *
+     * Once check has let a probe through, the caller has to record the
+     * outcome of its request with {@link #record(URL, Exception)} or
+     * {@link #record(URL, int, Map)} whatever happens, or the host stays
+     * closed to every other request.
+     *
+     * @param url the URL about to be requested
+     * @throws PushServerUnavailableException if the breaker of the host is
+     *             open or another request is already probing it
+     */
+    static void check(URL url) throws PushServerUnavailableException {
+        Breaker breaker = BREAKERS.get(hostOf(url));
+        if (breaker != null) {
+            breaker.check(hostOf(url));
+        }
+    }
+
+    /**
+     * Records the outcome of a request to a push server. Any answer but 429
+     * or 503 shows the server is up again, failures without an answer leave
+     * the breaker as it is and let another request probe it if the calling
+     * thread held the probe. Must be called on the thread which called
+     * {@link #check(URL)}.
+     *
+     * @param url the URL which was requested
+     * @param failure what the request failed with, or null if it succeeded
+     */
+    static void record(URL url, Exception failure) {
+        String host = hostOf(url);
+        Breaker breaker = BREAKERS.get(host);
+
+        if (!(failure instanceof HttpException)) {
+            if (breaker != null && failure == null) {
+                breaker.reset();
+            } else {
+                release(url);
+            }
+            return;
+        }
+
+        HttpException httpFailure = (HttpException) failure;
+        record(url, httpFailure.getStatusCode(), httpFailure.getHeaders());
+    }
+
+    /**
+     * Gives up the probe of the host of url if the calling thread holds it,
+     * for requests which ended without an answer.
+     *
+     * @param url the URL which was requested
+     */
+    static void release(URL url) {
+        Breaker breaker = BREAKERS.get(hostOf(url));
+        if (breaker != null) {
+            breaker.release();
+        }
+    }
+
+    /**
+     * Records the answer of a push server to a request which was not sent
+     * through an HttpProvider.
+     *
+     * @param url the URL which was requested
+     * @param statusCode the status of the answer
+     * @param headers the headers of the answer
+     */
+    static void record(URL url, int statusCode, Map<String, String> headers) {
+        String host = hostOf(url);
+        Breaker breaker = BREAKERS.get(host);
+        if (statusCode != HTTP_TOO_MANY_REQUESTS && statusCode != HttpURLConnection.HTTP_UNAVAILABLE) {
+            if (breaker != null) {
+                breaker.reset();
+            }
+            return;
+        }
+
+        if (breaker == null) {
+            BREAKERS.putIfAbsent(host, new Breaker());
+            breaker = BREAKERS.get(host);
+        }
+        breaker.open(retryAfter(headers));
+    }
+
+    /**
+     * @param headers the headers of a 429 or 503 answer
+     * @return the milliseconds Retry-After asks for, or -1 if there is no
+     *         usable Retry-After
+     */
+    static long retryAfter(Map<String, String> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        String value = headers.get("Retry-After");
+        if (value == null) {
+            value = headers.get("retry-after");
+        }
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+
+        long delay;
+        try {
+            delay = Long.parseLong(value) * 1000;
+        } catch (NumberFormatException notSeconds) {
+            SimpleDateFormat httpDate = new SimpleDateFormat(HTTP_DATE_PATTERN, Locale.US);
+            httpDate.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                delay = httpDate.parse(value).getTime() - System.currentTimeMillis();
+            } catch (ParseException notDate) {
+                Log.w(TAG, "Ignoring Retry-After " + value);
+                return -1;
+            }
+        }
+        return Math.min(Math.max(delay, 0), MAX_RETRY_AFTER);
+    }
+
+    /**
+     * Prints the hosts whose breaker is open.
+     *
+     * @param writer where to print
+     */
+    static void dump(PrintWriter writer) {
+        int open = 0;
+        for (Map.Entry<String, Breaker> entry : BREAKERS.entrySet()) {
+            long remaining = entry.getValue().remaining();
+            if (remaining >= 0) {
+                writer.println("    " + entry.getKey() + ": open for " + remaining + "ms");
+                open++;
+            }
+        }
+        if (open == 0) {
+            writer.println("    none");
+        }
+    }
+
+    private static String hostOf(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private static final class Breaker {
+
+        private long openUntil;
+        private long backoff = INITIAL_BACKOFF;
+        private boolean open;
+        private Thread prober;
+
+        synchronized void check(String host) throws PushServerUnavailableException {
+            if (!open) {
+                return;
+            }
+            long remaining = openUntil - SystemClock.elapsedRealtime();
+            if (remaining > 0) {
+                throw new PushServerUnavailableException(host, remaining);
+            }
+            if (prober != null) {
+                throw new PushServerUnavailableException(host, 0);
+            }
+            prober = Thread.currentThread();
+        }
+
+        synchronized void open(long retryAfter) {
+            long delay = retryAfter >= 0 ? retryAfter : backoff;
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            openUntil = SystemClock.elapsedRealtime() + delay;
+            open = true;
+            prober = null;
+        }
+
+        /**
+         * @return the milliseconds until the breaker lets a request through,
+         *         -1 if it is closed
+         */
+        synchronized long remaining() {
+            if (!open) {
+                return -1;
+            }
+            return Math.max(0, openUntil - SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * Gives up the probe if the calling thread holds it.
+         */
+        synchronized void release() {
+            if (prober == Thread.currentThread()) {
+                prober = null;
+            }
+        }
+
+        synchronized void reset() {
+            backoff = INITIAL_BACKOFF;
+            open = false;
+            prober = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+/**
+ * Authenticates requests to the UnifiedPush Server.
+ *
+ * The header is asked for on every request, so implementations which use
+ * short lived tokens may return a fresh value each time. Implementations
+ * must be thread safe.
+ *
+ * @see UnifiedPushCredentials
+ */
+public interface PushServerCredentials {
+
+    /**
+     * @return the value of the Authorization header
+     */
+    String getAuthorizationHeader();
+
+}
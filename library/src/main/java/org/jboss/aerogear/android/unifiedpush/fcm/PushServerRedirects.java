@@ -0,0 +1,183 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.jboss.aerogear.android.pipe.http.HttpException;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers permanent redirects of push servers.
+ *
+ * A permanent redirect of the device registry endpoint moves the whole push
+ * server, so the new base URL is saved per configured push server URL and
+ * used for registration, metrics and token refresh requests alike. This
+ * means the redirect is only paid once, not on every cold start.
+ *
+ * Requests carry the variant credentials, so redirects from https to http
+ * are never followed, and only moves within the origin of the configured
+ * push server are saved. Saved moves are forgotten after
+ * {@link #MAX_AGE_MILLIS} and found again by the next redirect.
+ */
+final class PushServerRedirects {
+
+    /**
+     * The most redirects followed for a single request.
+     */
+    static final int MAX_REDIRECTS = 5;
+
+    /**
+     * How long a saved redirect is used.
+     */
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static final String TAG = PushServerRedirects.class.getSimpleName();
+    private static final String PREFERENCE_TEMPLATE = "org.jboss.aerogear.android.unifiedpush.fcm.PushServerRedirects:%s";
+    private static final String SAVED_AT_SUFFIX = ":savedAt";
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;//Temporary Redirect not in HTTPUrlConnection
+    private static final int HTTP_PERMANENT_REDIRECT = 308;//Permanent Redirect not in HTTPUrlConnection
+    private static final String HTTPS = "https";
+
+    private PushServerRedirects() {
+    }
+
+    /**
+     * @param preferences where redirects are saved
+     * @param pushServerURL the configured push server URL
+     * @return the URL pushServerURL was permanently moved to, or
+     *         pushServerURL
+     */
+    static URL resolve(SharedPreferences preferences, URL pushServerURL) {
+        String moved = preferences.getString(key(pushServerURL), null);
+        if (moved == null) {
+            return pushServerURL;
+        }
+        long age = System.currentTimeMillis() - preferences.getLong(key(pushServerURL) + SAVED_AT_SUFFIX, 0);
+        try {
+            URL movedTo = new URL(moved);
+            if (age >= 0 && age < MAX_AGE_MILLIS && isSameOrigin(pushServerURL, movedTo)) {
+                return movedTo;
+            }
+        } catch (MalformedURLException e) {
+            Log.w(TAG, e.getMessage(), e);
+        }
+        forget(preferences, pushServerURL);
+        return pushServerURL;
+    }
+
+    static boolean isRedirect(int statusCode) {
+        switch (statusCode) {
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case HTTP_TEMPORARY_REDIRECT:
+            case HTTP_PERMANENT_REDIRECT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isPermanent(int statusCode) {
+        return statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * @param redirect the redirect response
+     * @param requestURL the URL which was redirected
+     * @return the absolute Location of the redirect
+     * @throws MalformedURLException if there is no usable Location header,
+     *             or it leads from https to another scheme
+     */
+    static URL location(HttpException redirect, URL requestURL) throws MalformedURLException {
+        String location = redirect.getHeaders().get("Location");
+        if (location == null) {
+            throw new MalformedURLException("Redirect from " + requestURL + " has no Location");
+        }
+        URL url = new URL(requestURL, location);
+        if (HTTPS.equalsIgnoreCase(requestURL.getProtocol()) && !HTTPS.equalsIgnoreCase(url.getProtocol())) {
+            throw new MalformedURLException("Redirect from " + requestURL + " to " + url + " is not followed, it is not secure");
+        }
+        return url;
+    }
+
+    /**
+     * @param location where an endpoint was moved to
+     * @param endpoint the path of the endpoint, e.g. /rest/registry/device
+     * @return the push server URL location belongs to, or null if location
+     *         does not end with endpoint
+     */
+    static URL baseOf(URL location, String endpoint) {
+        String url = location.toString();
+        if (!url.endsWith(endpoint)) {
+            return null;
+        }
+        try {
+            return new URL(url.substring(0, url.length() - endpoint.length()));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves a permanent redirect of a push server, unless it leaves the
+     * origin of the configured push server.
+     *
+     * @param preferences where redirects are saved
+     * @param pushServerURL the configured push server URL
+     * @param movedTo the URL of the push server from now on
+     */
+    static void remember(SharedPreferences preferences, URL pushServerURL, URL movedTo) {
+        if (!isSameOrigin(pushServerURL, movedTo)) {
+            Log.w(TAG, "Not saving the move of " + pushServerURL + " to another origin");
+            return;
+        }
+        preferences.edit()
+                .putString(key(pushServerURL), movedTo.toString())
+                .putLong(key(pushServerURL) + SAVED_AT_SUFFIX, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Forgets the saved redirect of a push server.
+     *
+     * @param preferences where redirects are saved
+     * @param pushServerURL the configured push server URL
+     */
+    static void forget(SharedPreferences preferences, URL pushServerURL) {
+        preferences.edit()
+                .remove(key(pushServerURL))
+                .remove(key(pushServerURL) + SAVED_AT_SUFFIX)
+                .apply();
+    }
+
+    private static boolean isSameOrigin(URL a, URL b) {
+        return a.getProtocol().equalsIgnoreCase(b.getProtocol())
+                && a.getHost().equalsIgnoreCase(b.getHost())
+                && (a.getPort() == -1 ? a.getDefaultPort() : a.getPort()) == (b.getPort() == -1 ? b.getDefaultPort() : b.getPort());
+    }
+
+    private static String key(URL pushServerURL) {
+        return String.format(PREFERENCE_TEMPLATE, pushServerURL);
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while a push server is overloaded or
+ * in maintenance, that is after it answered 429 Too Many Requests or 503
+ * Service Unavailable and before the time it asked clients to wait for has
+ * passed.
+ */
+public class PushServerUnavailableException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public PushServerUnavailableException(String server, long retryAfterMillis) {
+        super(server + " is unavailable, retry in " + retryAfterMillis + "ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return how long to wait before the push server accepts requests again
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
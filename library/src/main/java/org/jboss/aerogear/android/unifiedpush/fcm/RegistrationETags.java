@@ -0,0 +1,120 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.jboss.aerogear.android.pipe.http.HeaderAndBody;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conditional registration requests.
+ *
+ * The push server may tag a registration with an ETag. It is saved with the
+ * registration record, and when the next registration would send exactly
+ * what the record holds to the same endpoint the request carries the tag in
+ * If-None-Match. A 304 Not Modified or 412 Precondition Failed answer then
+ * means the server already has the registration.
+ */
+final class RegistrationETags {
+
+    /**
+     * Name of the ETag in the registration record.
+     */
+    static final String RECORD_KEY = "etag";
+
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final String[] ETAG_HEADERS = {"ETag", "Etag", "etag"};
+    private static final String RECORD_REGISTRY_URL = "deviceRegistryURL";
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private RegistrationETags() {
+    }
+
+    /**
+     * Returns the tag to send with a registration, or null if the request
+     * has to be unconditional because there is no tag or the registration
+     * changed.
+     *
+     * @param record the saved registration record or null
+     * @param postData the registration about to be sent
+     * @param deviceRegistryURL where it is about to be sent
+     * @return the saved tag or null
+     */
+    static String conditionFor(JsonObject record, JsonObject postData, URL deviceRegistryURL) {
+        if (record == null || !hasString(record, RECORD_KEY) || !hasString(record, RECORD_REGISTRY_URL)) {
+            return null;
+        }
+        if (!record.get(RECORD_REGISTRY_URL).getAsString().equals(deviceRegistryURL.toString())) {
+            return null;
+        }
+
+        for (Map.Entry<String, JsonElement> field : postData.entrySet()) {
+            if (!field.getValue().equals(record.get(field.getKey()))) {
+                return null;
+            }
+        }
+        // A field dropped since the last registration, categories for instance
+        for (String field : AeroGearFCMPushRegistrar.REGISTRATION_FIELDS) {
+            if (record.has(field) && !record.get(field).isJsonNull() && !postData.has(field)) {
+                return null;
+            }
+        }
+        return record.get(RECORD_KEY).getAsString();
+    }
+
+    /**
+     * @param statusCode the status of a conditional registration
+     * @return true if the server already has the registration
+     */
+    static boolean isNotModified(int statusCode) {
+        return statusCode == HTTP_NOT_MODIFIED || statusCode == HTTP_PRECONDITION_FAILED;
+    }
+
+    /**
+     * @param response a registration response
+     * @return its ETag or null
+     */
+    static String from(HeaderAndBody response) {
+        if (response == null) {
+            return null;
+        }
+        for (String header : ETAG_HEADERS) {
+            Object value = response.getHeader(header);
+            if (value instanceof List) {
+                List<?> values = (List<?>) value;
+                value = values.isEmpty() ? null : values.get(0);
+            }
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasString(JsonObject record, String field) {
+        return record.has(field) && record.get(field).isJsonPrimitive();
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import org.jboss.aerogear.android.pipe.http.HeaderAndBody;
+import org.jboss.aerogear.android.pipe.http.HttpException;
+import org.jboss.aerogear.android.pipe.http.HttpProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip encoding of registration request bodies.
+ *
+ * Bodies are only compressed when a threshold is configured and they are at
+ * least that large. A push server which answers a compressed request with
+ * 415 Unsupported Media Type gets the plain body straight away, and no
+ * compressed bodies for the rest of the process.
+ */
+final class RequestCompression {
+
+    /**
+     * Compression is off unless a threshold is configured.
+     */
+    static final int DISABLED = -1;
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private static final Set<String> UNSUPPORTED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private RequestCompression() {
+    }
+
+    /**
+     * Posts a body, gzip encoded if it is at least threshold bytes long.
+     *
+     * @param provider the provider to post with
+     * @param body the body to post
+     * @param threshold the smallest body in bytes to compress or
+     *            {@link #DISABLED}
+     * @return the response
+     * @throws IOException if the body can not be compressed
+     */
+    static HeaderAndBody post(HttpProvider provider, String body, int threshold) throws IOException {
+        return post(provider, body, threshold, null);
+    }
+
+    /**
+     * Posts a body, gzip encoded if it is at least threshold bytes long.
+     *
+     * @param provider the provider to post with
+     * @param body the body to post
+     * @param threshold the smallest body in bytes to compress or
+     *            {@link #DISABLED}
+     * @param sent set to the size of the last body posted, as encoded, or
+     *            null
+     * @return the response
+     * @throws IOException if the body can not be compressed
+     */
+    static HeaderAndBody post(HttpProvider provider, String body, int threshold, AtomicLong sent) throws IOException {
+        if (threshold == DISABLED) {
+            return postPlain(provider, body, sent);
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String server = serverOf(provider.getUrl());
+        if (bytes.length < threshold || UNSUPPORTED.contains(server)) {
+            return postPlain(provider, body, sent);
+        }
+
+        provider.setDefaultHeader(CONTENT_ENCODING, GZIP);
+        try {
+            byte[] compressed = gzip(bytes);
+            if (sent != null) {
+                sent.set(compressed.length);
+            }
+            return provider.post(compressed);
+        } catch (HttpException ex) {
+            if (ex.getStatusCode() != HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                throw ex;
+            }
+            UNSUPPORTED.add(server);
+            provider.setDefaultHeader(CONTENT_ENCODING, IDENTITY);
+            return postPlain(provider, body, sent);
+        }
+    }
+
+    private static HeaderAndBody postPlain(HttpProvider provider, String body, AtomicLong sent) {
+        if (sent != null) {
+            sent.set(body.getBytes(StandardCharsets.UTF_8).length);
+        }
+        return provider.post(body);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        try {
+            gzip.write(bytes);
+        } finally {
+            gzip.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String serverOf(URL url) {
+        if (url == null) {
+            return "";
+        }
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another
+ * executor. Tasks waiting for their turn are queued here, so they do not
+ * hold a thread of the underlying executor.
+ *
+ * If the underlying executor rejects a task, execute throws the rejection
+ * and the executor stays usable. A waiting task the underlying executor
+ * rejects runs on the thread of the task before it instead.
+ */
+final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    private Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            active = tasks.poll();
+            try {
+                executor.execute(active);
+            } catch (RejectedExecutionException ex) {
+                active = null;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Hands the next task to the executor. Called on a thread of the
+     * executor once a task finished, so a task the executor rejects can run
+     * right here instead of being lost.
+     */
+    private void scheduleNext() {
+        Runnable next;
+        synchronized (this) {
+            active = tasks.poll();
+            if (active == null) {
+                return;
+            }
+            try {
+                executor.execute(active);
+                return;
+            } catch (RejectedExecutionException ex) {
+                next = active;
+            }
+        }
+        next.run();
+    }
+
+}
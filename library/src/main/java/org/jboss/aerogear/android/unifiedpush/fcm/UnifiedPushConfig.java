@@ -21,21 +21,31 @@ import java.util.*;
 
 public final class UnifiedPushConfig {
 
+    private static final long DEFAULT_TIMEOUT = 30000;// 30 seconds
+
     private URI pushServerURI;
     private String senderId;
     private String variantID;
     private String secret;
+    private PushServerCredentials credentials;
+    private int requestCompressionThreshold = RequestCompression.DISABLED;
+    private long registrationTimeout = DEFAULT_TIMEOUT;
+    private long unregistrationTimeout = DEFAULT_TIMEOUT;
+    private long metricsTimeout = DEFAULT_TIMEOUT;
     private String deviceToken = "";
     private String deviceType = "ANDROID";
     private String operatingSystem = "android";
     private String osVersion = android.os.Build.VERSION.RELEASE;
     private String alias;
-    private List<String> categories = new ArrayList<String>();
+    private Set<String> categories = new LinkedHashSet<String>();
 
     
     /**
      * Topics in GCM must conform to this pattern.
      * See : https://developers.google.com/android/reference/com/google/android/gms/gcm/GcmPubSub#unsubscribe(java.lang.String, java.lang.String)
+     *
+     * It is only used in error messages, {@link #isValidTopic(String)} checks
+     * the same characters without a regular expression.
      */
     private static final String FCM_TOPIC_PATTERN = "[a-zA-Z0-9-_.~%]+";
     
@@ -124,6 +134,144 @@ public final class UnifiedPushConfig {
         return this;
     }
 
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server. Null means Basic authentication with the
+     * variant ID and secret.
+     *
+     * @return the current credentials
+     *
+     */
+    public PushServerCredentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Credentials used instead of the secret to authenticate with the
+     * AeroGear UnifiedPush Server. Null means Basic authentication with the
+     * variant ID and secret.
+     *
+     * Credentials are kept in memory only. Token refreshes can start in a
+     * process where no registrar was built yet, so an application using
+     * them should also pass them to
+     * {@link UnifiedPushCredentials#setCredentials(String, PushServerCredentials)}
+     * when it starts. Refreshes without credentials are skipped. A registrar
+     * built without credentials drops those an earlier configuration set
+     * for its variant and uses the secret, but keeps those the application
+     * set.
+     *
+     * @param credentials the new credentials
+     * @return the current configuration
+     */
+    public UnifiedPushConfig setCredentials(PushServerCredentials credentials) {
+        this.credentials = credentials;
+        return this;
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses. Servers which reject
+     * compressed bodies are sent plain ones instead.
+     *
+     * @return the current threshold
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * The smallest registration request body, in bytes, which is sent gzip
+     * encoded. -1, the default, never compresses. Servers which reject
+     * compressed bodies are sent plain ones instead.
+     *
+     * @param requestCompressionThreshold the new threshold
+     * @return the current configuration
+     */
+    public UnifiedPushConfig setRequestCompressionThreshold(int requestCompressionThreshold) {
+        if (requestCompressionThreshold < RequestCompression.DISABLED) {
+            throw new IllegalArgumentException("requestCompressionThreshold must be -1 or positive");
+        }
+        this.requestCompressionThreshold = requestCompressionThreshold;
+        return this;
+    }
+
+    /**
+     * The milliseconds a registration, from fetching the token to
+     * sending it to the push server, may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @return the current timeout
+     */
+    public long getRegistrationTimeout() {
+        return registrationTimeout;
+    }
+
+    /**
+     * The milliseconds a registration, from fetching the token to
+     * sending it to the push server, may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @param registrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public UnifiedPushConfig setRegistrationTimeout(long registrationTimeout) {
+        if (registrationTimeout <= 0) {
+            throw new IllegalArgumentException("registrationTimeout must be positive");
+        }
+        this.registrationTimeout = registrationTimeout;
+        return this;
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @return the current timeout
+     */
+    public long getUnregistrationTimeout() {
+        return unregistrationTimeout;
+    }
+
+    /**
+     * The milliseconds an unregistration may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @param unregistrationTimeout the new timeout
+     * @return the current configuration
+     */
+    public UnifiedPushConfig setUnregistrationTimeout(long unregistrationTimeout) {
+        if (unregistrationTimeout <= 0) {
+            throw new IllegalArgumentException("unregistrationTimeout must be positive");
+        }
+        this.unregistrationTimeout = unregistrationTimeout;
+        return this;
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @return the current timeout
+     */
+    public long getMetricsTimeout() {
+        return metricsTimeout;
+    }
+
+    /**
+     * The milliseconds sending a metrics message may take in total. Defaults
+     * to 30 seconds.
+     *
+     * @param metricsTimeout the new timeout
+     * @return the current configuration
+     */
+    public UnifiedPushConfig setMetricsTimeout(long metricsTimeout) {
+        if (metricsTimeout <= 0) {
+            throw new IllegalArgumentException("metricsTimeout must be positive");
+        }
+        this.metricsTimeout = metricsTimeout;
+        return this;
+    }
+
     /**
      * The device token Identifies the device within its Push Network. It is the
      * value = GoogleCloudMessaging.getInstance(context).register(SENDER_ID);
@@ -221,50 +369,62 @@ public final class UnifiedPushConfig {
     }
 
     /**
-     * The categories specifies a channel which may be used to send messages
+     * The categories specifies a channel which may be used to send messages.
+     * Categories are unique and kept in insertion order.
      *
-     * @return the current categories
+     * @return a copy of the current categories
      *
      */
     public List<String> getCategories() {
-        return Collections.unmodifiableList(categories);
+        return Collections.unmodifiableList(new ArrayList<String>(categories));
     }
 
     /**
-     * The categories specifies a channel which may be used to send messages
+     * The categories specifies a channel which may be used to send messages.
+     * Categories are unique and kept in insertion order.
+     *
+     * @return a read only view of the current categories
+     *
+     */
+    public Set<String> getCategorySet() {
+        return Collections.unmodifiableSet(categories);
+    }
+
+    /**
+     * The categories specifies a channel which may be used to send messages.
+     * Duplicates are dropped.
      *
      * @param categories the new categories
      * @return the current configuration
      *
      */
     public UnifiedPushConfig setCategories(List<String> categories) {
-        validateCategories(categories.toArray(new String[categories.size()]));        
-        this.categories = new ArrayList<String>(categories);
+        validateCategories(categories);
+        this.categories = new LinkedHashSet<String>(categories);
         return this;
     }
 
     /**
-     * The categories specifies a channel which may be used to send messages
+     * The categories specifies a channel which may be used to send messages.
+     * Duplicates are dropped.
      *
      * @param categories the new categories
      * @return the current configuration
      *
      */
     public UnifiedPushConfig setCategories(String... categories) {
-        validateCategories(categories);        
-        this.categories = Arrays.asList(categories);
-        return this;
+        return setCategories(Arrays.asList(categories));
     }
 
     /**
      * The categories specifies a channel which may be used to send messages
      *
-     * @param category a new category to be added to the current list.
+     * @param category a new category to be added to the current categories.
      * @return the current configuration
      *
      */
     public UnifiedPushConfig addCategory(String category) {
-        validateCategories(category);        
+        validateCategory(category);
         categories.add(category);
         return this;
     }
@@ -272,16 +432,27 @@ public final class UnifiedPushConfig {
     /**
      * The categories specifies a channel which may be used to send messages
      *
-     * @param categories a category collection to be added to the current list.
+     * @param categories a category collection to be added to the current
+     *            categories.
      * @return the current configuration
      *
      */
     public UnifiedPushConfig addCategories(List<String> categories) {
-        validateCategories(categories.toArray(new String[categories.size()]));
+        validateCategories(categories);
         this.categories.addAll(categories);
         return this;
     }
 
+    /**
+     * Compares the current categories with an earlier set of categories.
+     *
+     * @param previous the categories to compare with
+     * @return the categories added and removed since previous
+     */
+    public CategoryDiff diffCategories(Collection<String> previous) {
+        return CategoryDiff.between(previous, categories);
+    }
+
     public void checkRequiredFields() {
         if (senderId == null || senderId.isEmpty()) {
             throw new IllegalStateException("SenderId can't be null or empty");
@@ -295,25 +466,53 @@ public final class UnifiedPushConfig {
             throw new IllegalStateException("VariantID can't be null");
         }
 
-        if (secret == null) {
+        if (secret == null && credentials == null) {
             throw new IllegalStateException("Secret can't be null");
         }
     }
 
     /**
-     * Validates categories against Google's pattern.
+     * Validates categories against Google's pattern. Nothing is changed
+     * unless every category is valid.
      *
      * @param categories a group of Strings each will be validated.
      *
      * @throws IllegalArgumentException if a category fails to match [a-zA-Z0-9-_.~%]+
      */
-    private static void validateCategories(String... categories) {
-
+    static void validateCategories(Collection<String> categories) {
         for (String category : categories) {
-            if (!category.matches(FCM_TOPIC_PATTERN)) {
-                throw new IllegalArgumentException(String.format("%s does not match %s", category, FCM_TOPIC_PATTERN));
+            validateCategory(category);
+        }
+    }
+
+    private static void validateCategory(String category) {
+        if (!isValidTopic(category)) {
+            throw new IllegalArgumentException(String.format("%s does not match %s", category, FCM_TOPIC_PATTERN));
+        }
+    }
+
+    /**
+     * Hand written equivalent of category.matches(FCM_TOPIC_PATTERN) which
+     * neither compiles a pattern nor allocates.
+     *
+     * @param category the category to check
+     * @return true if category is a valid FCM topic name
+     */
+    static boolean isValidTopic(String category) {
+        if (category == null || category.isEmpty()) {
+            return false;
+        }
+        for (int i = 0, length = category.length(); i < length; i++) {
+            char c = category.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || c == '%';
+            if (!valid) {
+                return false;
             }
         }
+        return true;
     }
 
 }
@@ -0,0 +1,169 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.fcm;
+
+import android.util.Base64;
+
+import org.jboss.aerogear.android.pipe.http.HttpProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The credentials of every variant used by this process.
+ *
+ * Registration, metrics and token refresh requests all authenticate through
+ * here. Basic credentials are encoded once per variant and reused. A variant
+ * can be given other credentials, for instance token based ones, with
+ * {@link UnifiedPushConfig#setCredentials(PushServerCredentials)}.
+ */
+public final class UnifiedPushCredentials {
+
+    private static final String BASIC_HEADER = "Authorization";
+    private static final String AUTHORIZATION_METHOD = "Basic";
+
+    private static final ConcurrentMap<String, PushServerCredentials> CREDENTIALS = new ConcurrentHashMap<>();
+
+    private UnifiedPushCredentials() {
+    }
+
+    /**
+     * Returns the credentials of a variant. Basic credentials are created and
+     * cached on first use, and again if the secret changes. Other
+     * credentials, set by the application or by the configuration of a
+     * registrar, are used whatever the secret.
+     *
+     * @param variantId the ID of the variant
+     * @param secret the secret of the variant, may be null if other
+     *            credentials were set for the variant
+     * @return the credentials of the variant
+     *
+     * @throws IllegalStateException if there is neither a secret nor other
+     *             credentials for the variant
+     */
+    public static PushServerCredentials forVariant(String variantId, String secret) {
+        PushServerCredentials credentials = CREDENTIALS.get(variantId);
+        if (credentials != null && (!(credentials instanceof BasicCredentials)
+                || ((BasicCredentials) credentials).matches(secret))) {
+            return credentials;
+        }
+
+        if (secret == null) {
+            throw new IllegalStateException("There are no credentials for variant " + variantId);
+        }
+
+        credentials = new BasicCredentials(variantId, secret);
+        CREDENTIALS.put(variantId, credentials);
+        return credentials;
+    }
+
+    /**
+     * Replaces the credentials of a variant for every request of this
+     * process.
+     *
+     * @param variantId the ID of the variant
+     * @param credentials the new credentials
+     */
+    public static void setCredentials(String variantId, PushServerCredentials credentials) {
+        CREDENTIALS.put(variantId, credentials);
+    }
+
+    /**
+     * Applies the credentials of a registrar's configuration to its variant.
+     * A configuration without credentials drops those an earlier
+     * configuration set, so the variant authenticates with its secret again.
+     * Credentials set by the application are kept.
+     *
+     * @param variantId the ID of the variant
+     * @param credentials the credentials of the configuration, may be null
+     */
+    static void configure(String variantId, PushServerCredentials credentials) {
+        if (credentials != null) {
+            CREDENTIALS.put(variantId, new ConfiguredCredentials(credentials));
+            return;
+        }
+
+        PushServerCredentials current = CREDENTIALS.get(variantId);
+        if (current instanceof ConfiguredCredentials) {
+            CREDENTIALS.remove(variantId, current);
+        }
+    }
+
+    /**
+     * Basic credentials which are not cached for any variant.
+     *
+     * @param username the user name
+     * @param password the password
+     * @return credentials authenticating as username
+     */
+    static PushServerCredentials basic(String username, String password) {
+        return new BasicCredentials(username, password);
+    }
+
+    /**
+     * Sets the Authorization header of a provider.
+     *
+     * @param credentials the credentials to use
+     * @param provider the provider to authenticate
+     */
+    static void authenticate(PushServerCredentials credentials, HttpProvider provider) {
+        provider.setDefaultHeader(BASIC_HEADER, credentials.getAuthorizationHeader());
+    }
+
+    private static final class BasicCredentials implements PushServerCredentials {
+
+        private final String secret;
+        private final String header;
+
+        BasicCredentials(String variantId, String secret) {
+            this.secret = secret;
+            byte[] unhashedCredentials = (variantId + ":" + secret).getBytes(StandardCharsets.UTF_8);
+            this.header = AUTHORIZATION_METHOD + " " + Base64.encodeToString(unhashedCredentials, Base64.NO_WRAP);
+        }
+
+        boolean matches(String secret) {
+            return secret == null || this.secret.equals(secret);
+        }
+
+        @Override
+        public String getAuthorizationHeader() {
+            return header;
+        }
+
+    }
+
+    /**
+     * Credentials which came from the configuration of a registrar rather
+     * than from the application.
+     */
+    private static final class ConfiguredCredentials implements PushServerCredentials {
+
+        private final PushServerCredentials credentials;
+
+        ConfiguredCredentials(PushServerCredentials credentials) {
+            this.credentials = credentials;
+        }
+
+        @Override
+        public String getAuthorizationHeader() {
+            return credentials.getAuthorizationHeader();
+        }
+
+    }
+
+}
@@ -28,4 +28,24 @@ public interface UnifiedPushMessage {
      */
     String PUSH_MESSAGE_ID = "aerogear-push-id";
 
+    /**
+     * Constant for the key of the time, in milliseconds since the epoch, FCM
+     * accepted the message. Added by {@link AeroGearUPSMessageService}.
+     */
+    String SENT_TIME_KEY = "aerogear-sent-time";
+
+    /**
+     * Constant for the key of the priority the message was delivered with,
+     * one of the RemoteMessage.PRIORITY_ constants. Added by
+     * {@link AeroGearUPSMessageService}.
+     */
+    String PRIORITY_KEY = "aerogear-priority";
+
+    /**
+     * Constant for the key of the priority the message was sent with, one of
+     * the RemoteMessage.PRIORITY_ constants. Added by
+     * {@link AeroGearUPSMessageService}.
+     */
+    String ORIGINAL_PRIORITY_KEY = "aerogear-original-priority";
+
 }
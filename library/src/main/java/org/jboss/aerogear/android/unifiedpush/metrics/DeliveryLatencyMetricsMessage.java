@@ -0,0 +1,98 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.metrics;
+
+/**
+ * Delivery latencies of a batch of push messages, in milliseconds.
+ *
+ * Send to receive latencies compare the FCM clock to the device clock and
+ * are only as accurate as the device clock.
+ */
+public class DeliveryLatencyMetricsMessage implements MetricsMessage {
+
+    private final String messageId;
+    private final long messages;
+    private final long deprioritized;
+    private final long sendToReceiveP50;
+    private final long sendToReceiveP90;
+    private final long sendToReceiveP99;
+    private final long receiveToHandledP50;
+    private final long receiveToHandledP90;
+    private final long receiveToHandledP99;
+
+    public DeliveryLatencyMetricsMessage(String messageId, long messages, long deprioritized,
+            long sendToReceiveP50, long sendToReceiveP90, long sendToReceiveP99,
+            long receiveToHandledP50, long receiveToHandledP90, long receiveToHandledP99) {
+        this.messageId = messageId;
+        this.messages = messages;
+        this.deprioritized = deprioritized;
+        this.sendToReceiveP50 = sendToReceiveP50;
+        this.sendToReceiveP90 = sendToReceiveP90;
+        this.sendToReceiveP99 = sendToReceiveP99;
+        this.receiveToHandledP50 = receiveToHandledP50;
+        this.receiveToHandledP90 = receiveToHandledP90;
+        this.receiveToHandledP99 = receiveToHandledP99;
+    }
+
+    /**
+     * @return an id of the batch
+     */
+    @Override
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return how many messages the batch covers
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return how many messages were sent with high priority but delivered
+     *         with normal priority
+     */
+    public long getDeprioritized() {
+        return deprioritized;
+    }
+
+    public long getSendToReceiveP50() {
+        return sendToReceiveP50;
+    }
+
+    public long getSendToReceiveP90() {
+        return sendToReceiveP90;
+    }
+
+    public long getSendToReceiveP99() {
+        return sendToReceiveP99;
+    }
+
+    public long getReceiveToHandledP50() {
+        return receiveToHandledP50;
+    }
+
+    public long getReceiveToHandledP90() {
+        return receiveToHandledP90;
+    }
+
+    public long getReceiveToHandledP99() {
+        return receiveToHandledP99;
+    }
+
+}
@@ -0,0 +1,403 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.android.gms.tasks.Task;
+
+import org.jboss.aerogear.android.unifiedpush.MessageHandler;
+import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.fcm.FCMSharedPreferenceProvider;
+import org.jboss.aerogear.android.unifiedpush.test.util.FakeFirebaseInstanceId;
+import org.jboss.aerogear.android.unifiedpush.test.util.FakeFirebaseMessaging;
+import org.jboss.aerogear.android.unifiedpush.test.util.FakePushServer;
+import org.jboss.aerogear.android.unifiedpush.test.util.UnitTestUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers handler registration, dispatch and one registrar from many
+ * threads in random order, then checks nothing was lost or left
+ * inconsistent. Every run uses a new seed, which is part of each failure
+ * message. Setting -Daerogear.stressSeed makes each thread pick the same
+ * operations again, but the threads still interleave differently, so a
+ * failing seed makes the failure more likely to recur rather than replaying
+ * it exactly.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 50;
+    private static final String TEST_SENDER_ID = "272275396485";
+    private static final String TEST_REGISTRAR_PREFERENCES_KEY = "org.jboss.aerogear.android.unifiedpush.gcm.AeroGearGCMPushRegistrar:272275396485";
+    private static final String DEVICE_ALREADY_UNREGISTERED = "Seems this device was already unregistered";
+    private static final String DEVICE_NOT_REGISTERED = "The device has to be registered before it can be updated";
+    private static final String NO_REJECTION = "";
+
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+    private Context context;
+    private long seed;
+
+    @Before
+    public void setUp() throws Exception {
+        UnitTestUtils.resetTokenCache();
+        context = ApplicationProvider.getApplicationContext();
+        seed = Long.getLong("aerogear.stressSeed", System.nanoTime());
+    }
+
+    @Test
+    public void testHandlersAreNotLostWhileDispatching() throws Exception {
+        final Bundle message = new Bundle();
+        final AtomicInteger notified = new AtomicInteger();
+        final AtomicInteger stableHandled = new AtomicInteger();
+        final List<CountingHandler> transientHandlers = new CopyOnWriteArrayList<>();
+        MessageHandler stableHandler = new MessageHandler() {
+            @Override
+            public void onMessage(Context context, Bundle message) {
+                stableHandled.incrementAndGet();
+            }
+        };
+
+        RegistrarManager.registerBackgroundThreadHandler(stableHandler);
+        try {
+            runConcurrently(new Work() {
+                @Override
+                public void run(Random random) throws Exception {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        CountingHandler handler = new CountingHandler();
+                        transientHandlers.add(handler);
+                        if (random.nextBoolean()) {
+                            RegistrarManager.registerBackgroundThreadHandler(handler);
+                            pause(random);
+                            notified.incrementAndGet();
+                            RegistrarManager.notifyHandlers(context, message, null);
+                            pause(random);
+                            RegistrarManager.unregisterBackgroundThreadHandler(handler);
+                        } else {
+                            RegistrarManager.registerMainThreadHandler(handler);
+                            pause(random);
+                            notified.incrementAndGet();
+                            RegistrarManager.notifyHandlers(context, message, null);
+                            pause(random);
+                            RegistrarManager.unregisterMainThreadHandler(handler);
+                        }
+                    }
+                }
+            });
+
+            // Every handler was registered when its own thread notified
+            for (CountingHandler handler : transientHandlers) {
+                awaitMainLooper(handler.handled);
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (stableHandled.get() < notified.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals("seed " + seed, notified.get(), stableHandled.get());
+
+            // and none of them is left behind
+            final CountDownLatch lastMessage = new CountDownLatch(1);
+            MessageHandler last = new MessageHandler() {
+                @Override
+                public void onMessage(Context context, Bundle message) {
+                    lastMessage.countDown();
+                }
+            };
+            int[] before = new int[transientHandlers.size()];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = transientHandlers.get(i).count.get();
+            }
+            RegistrarManager.registerBackgroundThreadHandler(last);
+            RegistrarManager.notifyHandlers(context, message, null);
+            Assert.assertTrue(lastMessage.await(10, TimeUnit.SECONDS));
+            RegistrarManager.unregisterBackgroundThreadHandler(last);
+            ShadowLooper.idleMainLooper();
+            for (int i = 0; i < before.length; i++) {
+                Assert.assertEquals("seed " + seed, before[i], transientHandlers.get(i).count.get());
+            }
+        } finally {
+            RegistrarManager.unregisterBackgroundThreadHandler(stableHandler);
+        }
+    }
+
+    @Test
+    public void testRegistrarStaysConsistent() throws Exception {
+        FakePushServer server = new FakePushServer();
+        final FakeFirebaseMessaging messaging = new FakeFirebaseMessaging();
+        final AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID("Variant")
+                .setSecret("Password")
+                .setCategories("a", "b")
+                .setPushServerURI(new URI("https://ups.example.com"))
+                .asRegistrar();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", server);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new FakeFirebaseInstanceId("tempId"));
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", messaging);
+
+        final Map<Task<?>, String> tasks = new ConcurrentHashMap<>();
+        runConcurrently(new Work() {
+            @Override
+            public void run(Random random) {
+                for (int round = 0; round < ROUNDS; round++) {
+                    operate(registrar, random, tasks);
+                    pause(random);
+                }
+            }
+        });
+
+        awaitAll(tasks, false);
+
+        String deviceToken = (String) UnitTestUtils.getPrivateField(registrar, "deviceToken");
+        String saved = new FCMSharedPreferenceProvider().get(context).getString(TEST_REGISTRAR_PREFERENCES_KEY, null);
+        if (deviceToken.isEmpty()) {
+            Assert.assertNull("seed " + seed, saved);
+            Assert.assertTrue("seed " + seed, server.getDeviceTokens().isEmpty());
+            return;
+        }
+
+        Assert.assertNotNull("seed " + seed, saved);
+        JSONObject record = new JSONObject(saved);
+        JSONObject device = server.getDevice(deviceToken);
+        Assert.assertEquals("seed " + seed, deviceToken, record.getString("deviceToken"));
+        Assert.assertNotNull("seed " + seed, device);
+        Assert.assertEquals("seed " + seed, device.optString("alias"), record.optString("alias"));
+
+        @SuppressWarnings("unchecked")
+        Set<String> categories = (Set<String>) UnitTestUtils.getPrivateField(registrar, "categories");
+        Assert.assertEquals("seed " + seed, categories, categoriesOf(record));
+        Assert.assertEquals("seed " + seed, categories, categoriesOf(device));
+    }
+
+    @Test
+    public void testRegistrarSurvivesRejectedTasks() throws Exception {
+        final FakePushServer server = new FakePushServer();
+        final AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) new AeroGearFCMPushConfiguration()
+                .setSenderId(TEST_SENDER_ID)
+                .setVariantID("Variant")
+                .setSecret("Password")
+                .setPushServerURI(new URI("https://ups.example.com"))
+                .asRegistrar();
+        UnitTestUtils.setPrivateField(registrar, "httpProviderProvider", server);
+        UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", new FakeFirebaseInstanceId("tempId"));
+        UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", new FakeFirebaseMessaging());
+
+        // An executor which is full every third time it is given a task,
+        // like AsyncTask.THREAD_POOL_EXECUTOR once its queue is full
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final AtomicInteger submissions = new AtomicInteger();
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        Executor full = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejecting.get() && submissions.incrementAndGet() % 3 == 0) {
+                    throw new RejectedExecutionException("full");
+                }
+                pool.execute(command);
+            }
+        };
+        Constructor<?> serialExecutor = Class.forName("org.jboss.aerogear.android.unifiedpush.fcm.SerialExecutor")
+                .getDeclaredConstructor(Executor.class);
+        serialExecutor.setAccessible(true);
+        UnitTestUtils.setPrivateField(registrar, "registrationExecutor", serialExecutor.newInstance(full));
+
+        try {
+            final Map<Task<?>, String> tasks = new ConcurrentHashMap<>();
+            runConcurrently(new Work() {
+                @Override
+                public void run(Random random) {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        try {
+                            operate(registrar, random, tasks);
+                        } catch (RejectedExecutionException expected) {
+                            // the operation was refused, and the registrar has to stay usable
+                        }
+                        pause(random);
+                    }
+                }
+            });
+            awaitAll(tasks, true);
+            Assert.assertTrue("seed " + seed + ": nothing was rejected", submissions.get() >= 3);
+
+            rejecting.set(false);
+            UnitTestUtils.await(registrar.register(context));
+            Assert.assertNotNull("seed " + seed, server.getDevice("tempId"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Starts a random operation on registrar and adds its task and the
+     * message it fails with when the registrar is not registered at the time
+     * it runs.
+     */
+    private void operate(AeroGearFCMPushRegistrar registrar, Random random, Map<Task<?>, String> tasks) {
+        String category = "c" + random.nextInt(4);
+        switch (random.nextInt(5)) {
+            case 0:
+                tasks.put(registrar.register(context), NO_REJECTION);
+                break;
+            case 1:
+                tasks.put(registrar.unregister(context), DEVICE_ALREADY_UNREGISTERED);
+                break;
+            case 2:
+                tasks.put(registrar.addCategories(context, category), DEVICE_NOT_REGISTERED);
+                break;
+            case 3:
+                tasks.put(registrar.removeCategories(context, category), DEVICE_NOT_REGISTERED);
+                break;
+            default:
+                tasks.put(registrar.updateAlias(context, "alias-" + random.nextInt(4)), DEVICE_NOT_REGISTERED);
+                break;
+        }
+    }
+
+    /**
+     * Waits for every task, failing on any failure other than the expected
+     * one of its operation, or a rejection if rejections are expected. A
+     * task which never completes fails the wait.
+     */
+    private void awaitAll(Map<Task<?>, String> tasks, boolean rejections) {
+        for (Map.Entry<Task<?>, String> task : tasks.entrySet()) {
+            try {
+                UnitTestUtils.await(task.getKey());
+            } catch (IllegalStateException ex) {
+                if (!task.getValue().equals(ex.getMessage())) {
+                    throw new AssertionError("seed " + seed, ex);
+                }
+            } catch (RejectedExecutionException ex) {
+                if (!rejections) {
+                    throw new AssertionError("seed " + seed, ex);
+                }
+            } catch (Exception ex) {
+                throw new AssertionError("seed " + seed, ex);
+            }
+        }
+    }
+
+    private interface Work {
+
+        void run(Random random) throws Exception;
+
+    }
+
+    /**
+     * Runs work on THREADS threads started at the same time, each with its
+     * own random derived from the seed, and fails on anything they throw.
+     */
+    private void runConcurrently(final Work work) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final Random random = new Random(seed + i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        work.run(random);
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                ShadowLooper.idleMainLooper();
+                thread.join(1);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("seed " + seed, failures.get(0));
+        }
+    }
+
+    private void awaitMainLooper(CountDownLatch latch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!latch.await(1, TimeUnit.MILLISECONDS)) {
+            Assert.assertTrue("seed " + seed + ": a handler missed its message", System.currentTimeMillis() < deadline);
+            ShadowLooper.idleMainLooper();
+        }
+    }
+
+    private static void pause(Random random) {
+        if (random.nextBoolean()) {
+            Thread.yield();
+        }
+    }
+
+    private static Set<String> categoriesOf(JSONObject registration) throws Exception {
+        Set<String> categories = new HashSet<>();
+        JSONArray array = registration.optJSONArray("categories");
+        for (int i = 0; array != null && i < array.length(); i++) {
+            categories.add(array.getString(i));
+        }
+        return categories;
+    }
+
+    private static final class CountingHandler implements MessageHandler {
+
+        private final CountDownLatch handled = new CountDownLatch(1);
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onMessage(Context context, Bundle message) {
+            count.incrementAndGet();
+            handled.countDown();
+        }
+
+    }
+
+}
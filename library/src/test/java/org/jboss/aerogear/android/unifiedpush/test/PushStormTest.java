@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+
+import org.jboss.aerogear.android.unifiedpush.MessageHandler;
+import org.jboss.aerogear.android.unifiedpush.MessageHandlerStats;
+import org.jboss.aerogear.android.unifiedpush.test.util.PushStormSimulator;
+import org.jboss.aerogear.android.unifiedpush.test.util.TestReports;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays bursts of messages through the receive path. Budgets are loose
+ * enough for a busy build machine and catch order of magnitude regressions;
+ * the reports in build/reports/aerogear show the actual numbers.
+ *
+ * Handler stats are kept per handler class for the whole process, so every
+ * handler class here is used by a single replay.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PushStormTest {
+
+    private static final long FAST_HANDLER_P99_BUDGET = TimeUnit.SECONDS.toMicros(1);
+    private static final long HEAP_GROWTH_BUDGET = 64 * 1024 * 1024;
+
+    @Test
+    public void testSyntheticStormWithMixedHandlers() throws Exception {
+        PushStormSimulator.Report report = new PushStormSimulator()
+                .setRate(500)
+                .addBackgroundThreadHandler(new FastHandler())
+                .addBackgroundThreadHandler(new SlowHandler())
+                .addMainThreadHandler(new MainThreadHandler())
+                .replay(PushStormSimulator.synthetic(500, 1024));
+        TestReports.write("PushStormTest-synthetic", report);
+
+        for (Class<?> handler : new Class<?>[] {FastHandler.class, SlowHandler.class, MainThreadHandler.class}) {
+            MessageHandlerStats stats = report.handlers.get(handler.getName());
+            Assert.assertNotNull(handler.getName() + " missing from " + report, stats);
+            Assert.assertEquals(report.toString(), 500, stats.getInvocations());
+            Assert.assertEquals(report.toString(), 0, stats.getFailures());
+        }
+        MessageHandlerStats fast = report.handlers.get(FastHandler.class.getName());
+        Assert.assertTrue(report.toString(), fast.getLatency().getPercentileMicros(99) < FAST_HANDLER_P99_BUDGET);
+        Assert.assertTrue(report.toString(), report.heapGrowth < HEAP_GROWTH_BUDGET);
+    }
+
+    @Test
+    public void testRecordedStormIsDeliveredIntact() throws Exception {
+        List<Map<String, String>> messages = PushStormSimulator.recorded("push-storm.jsonl");
+        RecordingHandler handler = new RecordingHandler();
+
+        PushStormSimulator.Report report = new PushStormSimulator()
+                .setRate(100)
+                .addBackgroundThreadHandler(handler)
+                .replay(messages);
+        TestReports.write("PushStormTest-recorded", report);
+
+        Assert.assertEquals(report.toString(), messages.size(), handler.alerts.size());
+        for (Map<String, String> message : messages) {
+            Assert.assertTrue(handler.alerts.contains(message.get("aerogear-push-id") + ":" + message.get("alert")));
+        }
+    }
+
+    private static final class FastHandler implements MessageHandler {
+
+        @Override
+        public void onMessage(Context context, Bundle message) {
+            message.getString("alert");
+        }
+
+    }
+
+    private static final class SlowHandler implements MessageHandler {
+
+        @Override
+        public void onMessage(Context context, Bundle message) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private static final class MainThreadHandler implements MessageHandler {
+
+        @Override
+        public void onMessage(Context context, Bundle message) {
+            Assert.assertSame(Looper.getMainLooper(), Looper.myLooper());
+        }
+
+    }
+
+    private static final class RecordingHandler implements MessageHandler {
+
+        private final List<String> alerts = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onMessage(Context context, Bundle message) {
+            alerts.add(message.getString("aerogear-push-id") + ":" + message.getString("alert"));
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.jboss.aerogear.android.unifiedpush.MessageHandler;
+import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearUPSMessageService;
+import org.jboss.aerogear.android.unifiedpush.test.util.JvmStats;
+import org.jboss.aerogear.android.unifiedpush.test.util.TestReports;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the bytes the receive path allocates per delivered message within
+ * a budget. Budgets can be overridden with
+ * -Daerogear.allocationBudget.&lt;test name&gt;=&lt;bytes&gt;. What each test
+ * measured is written to build/reports/aerogear.
+ *
+ * Allocations are counted per thread: on the thread calling
+ * onMessageReceived, which also runs main thread handlers here, and on each
+ * background handler's thread up to the moment the handler returns.
+ * Robolectric's shadows add to the counts, so budgets are not what a device
+ * allocates; they exist to catch growth.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReceiveAllocationTest {
+
+    private static final int WARM_UP = 200;
+    private static final int MESSAGES = 1000;
+
+    private AeroGearUPSMessageService service;
+    private RemoteMessage message;
+    private volatile CountDownLatch handled;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("This JVM does not count allocations", JvmStats.isAllocationCountingSupported());
+
+        service = Robolectric.setupService(AeroGearUPSMessageService.class);
+        Map<String, String> data = new HashMap<>();
+        data.put("alert", "Your order has shipped");
+        data.put("aerogear-push-id", "f2fd6b27-1f54-4a1b-9d0e-3f0b7d7c8a11");
+        data.put("order", "12345");
+        message = new RemoteMessage.Builder("272275396485@gcm.googleapis.com").setData(data).build();
+    }
+
+    @Test
+    public void testConversionWithoutHandlers() throws Exception {
+        assertWithinBudget("conversionWithoutHandlers", 4 * 1024, measure());
+    }
+
+    @Test
+    public void testMainThreadHandler() throws Exception {
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void onMessage(Context context, Bundle message) {
+            }
+        };
+        RegistrarManager.registerMainThreadHandler(handler);
+        try {
+            assertWithinBudget("mainThreadHandler", 8 * 1024, measure());
+        } finally {
+            RegistrarManager.unregisterMainThreadHandler(handler);
+        }
+    }
+
+    @Test
+    public void testBackgroundThreadHandler() throws Exception {
+        final AtomicLong handlerThreadBytes = new AtomicLong();
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void onMessage(Context context, Bundle message) {
+                handlerThreadBytes.addAndGet(JvmStats.getAllocatedBytes());
+                handled.countDown();
+            }
+        };
+        RegistrarManager.registerBackgroundThreadHandler(handler);
+        try {
+            handled = new CountDownLatch(WARM_UP);
+            receive(WARM_UP);
+            Assert.assertTrue(handled.await(30, TimeUnit.SECONDS));
+
+            handlerThreadBytes.set(0);
+            handled = new CountDownLatch(MESSAGES);
+            long receivingThreadBytes = receive(MESSAGES);
+            Assert.assertTrue(handled.await(30, TimeUnit.SECONDS));
+
+            assertWithinBudget("backgroundThreadHandler", 16 * 1024, receivingThreadBytes + handlerThreadBytes.get() / MESSAGES);
+        } finally {
+            RegistrarManager.unregisterBackgroundThreadHandler(handler);
+        }
+    }
+
+    /**
+     * @return the bytes the calling thread allocates per message once warm
+     */
+    private long measure() {
+        receive(WARM_UP);
+        return receive(MESSAGES);
+    }
+
+    /**
+     * @return the bytes the calling thread allocated per message
+     */
+    private long receive(int count) {
+        long before = JvmStats.getAllocatedBytes();
+        for (int i = 0; i < count; i++) {
+            service.onMessageReceived(message);
+        }
+        return (JvmStats.getAllocatedBytes() - before) / count;
+    }
+
+    private static void assertWithinBudget(String name, long defaultBudget, long bytesPerMessage) throws IOException {
+        long budget = Long.getLong("aerogear.allocationBudget." + name, defaultBudget);
+        TestReports.write("ReceiveAllocationTest-" + name, bytesPerMessage + " bytes per message, budget " + budget);
+        Assert.assertTrue(name + " allocates " + bytesPerMessage + " bytes per message, over its budget of " + budget,
+                bytesPerMessage <= budget);
+    }
+
+}
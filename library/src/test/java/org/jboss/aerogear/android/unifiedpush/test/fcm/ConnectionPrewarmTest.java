@@ -0,0 +1,98 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.fcm;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushServerUnavailableException;
+import org.jboss.aerogear.android.unifiedpush.test.util.UnitTestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Prewarms connections to a real HTTP server.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConnectionPrewarmTest {
+
+    private Context context;
+    private MockWebServer server;
+    private AeroGearFCMPushRegistrar registrar;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ApplicationProvider.getApplicationContext();
+        server = new MockWebServer();
+        server.start();
+        registrar = (AeroGearFCMPushRegistrar) new AeroGearFCMPushConfiguration()
+                .setSenderId("272275396485")
+                .setVariantID("Variant")
+                .setSecret("Password")
+                .setRegistrationTimeout(5000)
+                .setPushServerURI(server.url("/ups").uri())
+                .asRegistrar();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testSendsTwoHeadRequests() throws Exception {
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse());
+
+        Assert.assertTrue(UnitTestUtils.await(registrar.prewarm(context)) >= 0);
+
+        Assert.assertEquals(2, server.getRequestCount());
+        RecordedRequest request = server.takeRequest();
+        Assert.assertEquals("HEAD", request.getMethod());
+        Assert.assertEquals("/ups/rest/registry/device", request.getPath());
+    }
+
+    @Test
+    public void testStopsAtUnavailableServer() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "60"));
+
+        try {
+            UnitTestUtils.await(registrar.prewarm(context));
+            Assert.fail("The second request should not be sent");
+        } catch (PushServerUnavailableException expected) {
+            Assert.assertTrue(expected.getRetryAfterMillis() > 0);
+        }
+        try {
+            UnitTestUtils.await(registrar.prewarm(context));
+            Assert.fail("The push server asked to be left alone");
+        } catch (PushServerUnavailableException expected) {
+            Assert.assertEquals(1, server.getRequestCount());
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.fcm;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.android.gms.tasks.Task;
+
+import org.jboss.aerogear.android.pipe.http.HttpException;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
+import org.jboss.aerogear.android.unifiedpush.fcm.PushServerUnavailableException;
+import org.jboss.aerogear.android.unifiedpush.metrics.UnifiedPushMetricsMessage;
+import org.jboss.aerogear.android.unifiedpush.test.util.PushLoadHarness;
+import org.jboss.aerogear.android.unifiedpush.test.util.StandInPushServer;
+import org.jboss.aerogear.android.unifiedpush.test.util.TestReports;
+import org.jboss.aerogear.android.unifiedpush.test.util.UnitTestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs registrars over real HTTP against {@link StandInPushServer}.
+ *
+ * The load test only runs with -Daerogear.loadTest=true; its size can be set
+ * with aerogear.loadTest.registrars and aerogear.loadTest.concurrency. Its
+ * results are written to build/reports/aerogear/RegistrationLoadTest.txt.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RegistrationLoadTest {
+
+    private static final String LOAD_TEST = "aerogear.loadTest";
+
+    private Context context;
+    private StandInPushServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        UnitTestUtils.resetTokenCache();
+        context = ApplicationProvider.getApplicationContext();
+        server = StandInPushServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testLifecycleOverHttp() throws Exception {
+        PushLoadHarness harness = new PushLoadHarness(server.getURI(), 5, 5);
+
+        Assert.assertEquals(5, harness.run("register", register()).succeeded);
+        Assert.assertEquals(5, server.getDeviceCount());
+        Assert.assertEquals("tempId", server.getToken("variant-0"));
+
+        Assert.assertEquals(5, harness.run("metrics", sendMetrics()).succeeded);
+        Assert.assertEquals(5, server.getOpenedMessageCount());
+
+        Assert.assertEquals(5, harness.run("unregister", unregister()).succeeded);
+        Assert.assertEquals(0, server.getDeviceCount());
+    }
+
+    @Test
+    public void testThrottledServerIsNotCalledAgain() throws Exception {
+        server.setThrottleRate(1, 60);
+        PushLoadHarness harness = new PushLoadHarness(server.getURI(), 2, 1);
+
+        PushLoadHarness.Report report = harness.run("register", register());
+
+        Assert.assertEquals(0, report.succeeded);
+        Assert.assertEquals(Integer.valueOf(1), report.failures.get(HttpException.class.getSimpleName()));
+        Assert.assertEquals(Integer.valueOf(1), report.failures.get(PushServerUnavailableException.class.getSimpleName()));
+        Assert.assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TEST));
+        int registrars = Integer.getInteger(LOAD_TEST + ".registrars", 200);
+        int concurrency = Integer.getInteger(LOAD_TEST + ".concurrency", 16);
+
+        server.setLatency(5, 50, TimeUnit.MILLISECONDS)
+                .setErrorRate(0.02)
+                .setRedirectRate(0.02)
+                .setThrottleRate(0.005, 1);
+        PushLoadHarness harness = new PushLoadHarness(server.getURI(), registrars, concurrency);
+
+        PushLoadHarness.Report registration = harness.run("register", register());
+        PushLoadHarness.Report metrics = harness.run("metrics", sendMetrics());
+        PushLoadHarness.Report unregistration = harness.run("unregister", unregister());
+
+        String serverStats = String.format("server: %d requests, %d errors, %d throttled, %d redirected",
+                server.getRequestCount(), server.getErrorCount(), server.getThrottledCount(), server.getRedirectCount());
+        TestReports.write("RegistrationLoadTest", registration, metrics, unregistration, serverStats);
+
+        Assert.assertTrue(registration + "\n" + serverStats, registration.succeeded > 0);
+        Assert.assertEquals(unregistration + "\n" + serverStats,
+                registration.succeeded - unregistration.succeeded, server.getDeviceCount());
+    }
+
+    private PushLoadHarness.Operation register() {
+        return new PushLoadHarness.Operation() {
+            @Override
+            public Task<?> start(AeroGearFCMPushRegistrar registrar, int index) {
+                return registrar.register(context);
+            }
+        };
+    }
+
+    private static PushLoadHarness.Operation sendMetrics() {
+        return new PushLoadHarness.Operation() {
+            @Override
+            public Task<?> start(AeroGearFCMPushRegistrar registrar, int index) {
+                return registrar.sendMetrics(new UnifiedPushMetricsMessage("message-" + index));
+            }
+        };
+    }
+
+    private PushLoadHarness.Operation unregister() {
+        return new PushLoadHarness.Operation() {
+            @Override
+            public Task<?> start(AeroGearFCMPushRegistrar registrar, int index) {
+                return registrar.unregister(context);
+            }
+        };
+    }
+
+}
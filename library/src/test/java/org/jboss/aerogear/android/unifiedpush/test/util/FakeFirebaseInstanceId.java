@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.iid.FirebaseInstanceId;
+import com.google.firebase.iid.InstanceIdResult;
+
+import org.jboss.aerogear.android.core.Provider;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * A {@link FirebaseInstanceId} which hands out a fixed token without Google
+ * Play services. Install it in the "firebaseInstanceIdProvider" field of a
+ * registrar.
+ */
+public class FakeFirebaseInstanceId implements Provider<FirebaseInstanceId> {
+
+    private final FirebaseInstanceId instanceId = mock(FirebaseInstanceId.class);
+    private final AtomicInteger deletions = new AtomicInteger();
+    private final String token;
+    private volatile boolean created = true;
+    private volatile long requestMillis;
+
+    public FakeFirebaseInstanceId(final String token) throws IOException {
+        this.token = token;
+
+        doAnswer(new Answer<Task<InstanceIdResult>>() {
+            @Override
+            public Task<InstanceIdResult> answer(InvocationOnMock invocation) {
+                return Tasks.<InstanceIdResult>forResult(new InstanceIdResult() {
+                    @NonNull
+                    @Override
+                    public String getId() {
+                        return "fake-instance-id";
+                    }
+
+                    @NonNull
+                    @Override
+                    public String getToken() {
+                        return created ? token : null;
+                    }
+                });
+            }
+        }).when(instanceId).getInstanceId();
+
+        doAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                SystemClock.sleep(requestMillis);
+                created = true;
+                return token;
+            }
+        }).when(instanceId).getToken(anyString(), anyString());
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                deletions.incrementAndGet();
+                return null;
+            }
+        }).when(instanceId).deleteInstanceId();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Makes Firebase report no token until one is requested for a sender id,
+     * and the request take requestMillis of SystemClock time.
+     *
+     * @param requestMillis the time the request takes
+     */
+    public void createTokenOnRequest(long requestMillis) {
+        this.requestMillis = requestMillis;
+        this.created = false;
+    }
+
+    /**
+     * @return how often the instance id was deleted
+     */
+    public int getDeletions() {
+        return deletions.get();
+    }
+
+    @Override
+    public FirebaseInstanceId get(Object... in) {
+        return instanceId;
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import org.jboss.aerogear.android.core.Provider;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * A {@link FirebaseMessaging} which keeps the subscribed topics in memory.
+ * Install it in the "firebaseMessagingProvider" field of a registrar.
+ */
+public class FakeFirebaseMessaging implements Provider<FirebaseMessaging> {
+
+    private final FirebaseMessaging messaging = mock(FirebaseMessaging.class);
+    private final Set<String> topics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public FakeFirebaseMessaging() {
+        doAnswer(new Answer<Task<Void>>() {
+            @Override
+            public Task<Void> answer(InvocationOnMock invocation) {
+                topics.add((String) invocation.getArgument(0));
+                return Tasks.forResult(null);
+            }
+        }).when(messaging).subscribeToTopic(anyString());
+
+        doAnswer(new Answer<Task<Void>>() {
+            @Override
+            public Task<Void> answer(InvocationOnMock invocation) {
+                topics.remove((String) invocation.getArgument(0));
+                return Tasks.forResult(null);
+            }
+        }).when(messaging).unsubscribeFromTopic(anyString());
+    }
+
+    /**
+     * @return the topics subscribed to right now
+     */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(topics);
+    }
+
+    @Override
+    public FirebaseMessaging get(Object... in) {
+        return messaging;
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import org.jboss.aerogear.android.core.Provider;
+import org.jboss.aerogear.android.pipe.http.HeaderAndBody;
+import org.jboss.aerogear.android.pipe.http.HttpException;
+import org.jboss.aerogear.android.pipe.http.HttpProvider;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An in memory UnifiedPush Server answering the device registry and metrics
+ * endpoints. Install it in the "httpProviderProvider" field of a registrar
+ * or of AeroGearUPSMessageService; every provider it hands out talks to the
+ * same registry.
+ */
+public class FakePushServer implements Provider<HttpProvider> {
+
+    private static final String REGISTRY = "/rest/registry/device";
+    private static final String METRICS = REGISTRY + "/pushMessage";
+    private static final String OLD_TOKEN = "x-ag-old-token";
+
+    private final Map<String, JSONObject> devices = new ConcurrentHashMap<>();
+    private final List<String> openedMessages = new CopyOnWriteArrayList<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final Queue<HttpException> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Makes the next request fail with statusCode instead of being served.
+     */
+    public void failNext(int statusCode) {
+        failures.add(new HttpException(new byte[0], statusCode));
+    }
+
+    /**
+     * Makes the next request answer with a redirect to location instead of
+     * being served.
+     */
+    public void redirectNext(int statusCode, String location) {
+        HttpException redirect = mock(HttpException.class);
+        when(redirect.getStatusCode()).thenReturn(statusCode);
+        when(redirect.getHeaders()).thenReturn(Collections.singletonMap("Location", location));
+        failures.add(redirect);
+    }
+
+    /**
+     * @return the registration posted for token or null
+     */
+    public JSONObject getDevice(String token) {
+        return devices.get(token);
+    }
+
+    /**
+     * @return the tokens of every registered device
+     */
+    public List<String> getDeviceTokens() {
+        return new ArrayList<>(devices.keySet());
+    }
+
+    /**
+     * @return the ids of the messages reported as opened
+     */
+    public List<String> getOpenedMessages() {
+        return Collections.unmodifiableList(openedMessages);
+    }
+
+    /**
+     * @return every request received, failed ones included
+     */
+    public List<Request> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    @Override
+    public HttpProvider get(Object... in) {
+        final URL url = (URL) in[0];
+        final Map<String, String> headers = new HashMap<>();
+        HttpProvider provider = mock(HttpProvider.class);
+
+        doAnswer(new Answer<URL>() {
+            @Override
+            public URL answer(InvocationOnMock invocation) {
+                return url;
+            }
+        }).when(provider).getUrl();
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                headers.put((String) invocation.getArgument(0), (String) invocation.getArgument(1));
+                return null;
+            }
+        }).when(provider).setDefaultHeader((String) any(), (String) any());
+
+        doAnswer(new Answer<HeaderAndBody>() {
+            @Override
+            public HeaderAndBody answer(InvocationOnMock invocation) throws Exception {
+                return serve("POST", url.getPath(), headers, (String) invocation.getArgument(0));
+            }
+        }).when(provider).post(anyString());
+
+        doAnswer(new Answer<HeaderAndBody>() {
+            @Override
+            public HeaderAndBody answer(InvocationOnMock invocation) throws Exception {
+                return serve("POST", url.getPath(), headers, decode(headers, (byte[]) invocation.getArgument(0)));
+            }
+        }).when(provider).post(any(byte[].class));
+
+        doAnswer(new Answer<HeaderAndBody>() {
+            @Override
+            public HeaderAndBody answer(InvocationOnMock invocation) throws Exception {
+                return serve("PUT", url.getPath() + "/" + invocation.getArgument(0), headers, (String) invocation.getArgument(1));
+            }
+        }).when(provider).put(anyString(), anyString());
+
+        doAnswer(new Answer<HeaderAndBody>() {
+            @Override
+            public HeaderAndBody answer(InvocationOnMock invocation) throws Exception {
+                return serve("DELETE", url.getPath() + "/" + invocation.getArgument(0), headers, null);
+            }
+        }).when(provider).delete(anyString());
+
+        return provider;
+    }
+
+    private HeaderAndBody serve(String method, String path, Map<String, String> headers, String body) throws JSONException {
+        requests.add(new Request(method, path, new HashMap<>(headers), body));
+
+        HttpException failure = failures.poll();
+        if (failure != null) {
+            throw failure;
+        }
+
+        if ("POST".equals(method) && path.endsWith(REGISTRY)) {
+            JSONObject device = new JSONObject(body);
+            String oldToken = headers.get(OLD_TOKEN);
+            if (oldToken != null && !oldToken.equals(device.getString("deviceToken"))) {
+                devices.remove(oldToken);
+            }
+            devices.put(device.getString("deviceToken"), device);
+        } else if ("PUT".equals(method) && path.contains(METRICS + "/")) {
+            openedMessages.add(path.substring(path.lastIndexOf('/') + 1));
+        } else if ("DELETE".equals(method) && path.contains(REGISTRY + "/")) {
+            if (devices.remove(path.substring(path.lastIndexOf('/') + 1)) == null) {
+                throw new HttpException(new byte[0], 404);
+            }
+        } else {
+            throw new HttpException(new byte[0], 404);
+        }
+
+        return new HeaderAndBody(new byte[0], new HashMap<String, Object>());
+    }
+
+    private static String decode(Map<String, String> headers, byte[] body) throws IOException {
+        if (!"gzip".equals(headers.get("Content-Encoding"))) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A request received by the server.
+     */
+    public static final class Request {
+
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers;
+        public final String body;
+
+        Request(String method, String path, Map<String, String> headers, String body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+    }
+
+}
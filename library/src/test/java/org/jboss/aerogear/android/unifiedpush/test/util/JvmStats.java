@@ -0,0 +1,100 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Thread and allocation counters of the JVM running the unit tests.
+ *
+ * Unit tests compile against android.jar, which has no
+ * java.lang.management, so the platform ThreadMXBean is looked up by
+ * reflection. Allocation counters need a HotSpot based JVM.
+ */
+public final class JvmStats {
+
+    private static final Object THREADS;
+    private static final Method THREAD_COUNT;
+    private static final Method PEAK_THREAD_COUNT;
+    private static final Method RESET_PEAK_THREAD_COUNT;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        try {
+            THREADS = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Class<?> threads = Class.forName("java.lang.management.ThreadMXBean");
+            THREAD_COUNT = threads.getMethod("getThreadCount");
+            PEAK_THREAD_COUNT = threads.getMethod("getPeakThreadCount");
+            RESET_PEAK_THREAD_COUNT = threads.getMethod("resetPeakThreadCount");
+        } catch (Exception ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+
+        Method allocatedBytes = null;
+        try {
+            Class<?> hotSpotThreads = Class.forName("com.sun.management.ThreadMXBean");
+            if (hotSpotThreads.isInstance(THREADS)) {
+                allocatedBytes = hotSpotThreads.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception ignore) {
+            // not a HotSpot JVM
+        }
+        ALLOCATED_BYTES = allocatedBytes;
+    }
+
+    private JvmStats() {
+    }
+
+    public static int getThreadCount() {
+        return (Integer) invoke(THREAD_COUNT);
+    }
+
+    public static int getPeakThreadCount() {
+        return (Integer) invoke(PEAK_THREAD_COUNT);
+    }
+
+    public static void resetPeakThreadCount() {
+        invoke(RESET_PEAK_THREAD_COUNT);
+    }
+
+    /**
+     * @return true if {@link #getAllocatedBytes()} works on this JVM
+     */
+    public static boolean isAllocationCountingSupported() {
+        return ALLOCATED_BYTES != null && getAllocatedBytes() >= 0;
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread since it started,
+     *         -1 if this JVM does not count them
+     */
+    public static long getAllocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        return (Long) invoke(ALLOCATED_BYTES, Thread.currentThread().getId());
+    }
+
+    private static Object invoke(Method method, Object... args) {
+        try {
+            return method.invoke(THREADS, args);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import org.jboss.aerogear.android.unifiedpush.LatencyHistogram;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushConfiguration;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearFCMPushRegistrar;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives many registrars, each registering its own variant, through an
+ * operation against a push server and reports throughput, latency
+ * percentiles and failures. Registrars use the real HTTP provider and fake
+ * Firebase.
+ */
+public class PushLoadHarness {
+
+    /**
+     * An operation started on one registrar.
+     */
+    public interface Operation {
+
+        Task<?> start(AeroGearFCMPushRegistrar registrar, int index);
+
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private final List<AeroGearFCMPushRegistrar> registrars = new ArrayList<>();
+    private final int concurrency;
+
+    /**
+     * @param pushServerURI the server to run against
+     * @param registrarCount how many registrars to simulate
+     * @param concurrency how many operations may be in flight at once
+     */
+    public PushLoadHarness(URI pushServerURI, int registrarCount, int concurrency) throws Exception {
+        this.concurrency = concurrency;
+        FakeFirebaseInstanceId instanceId = new FakeFirebaseInstanceId("tempId");
+        FakeFirebaseMessaging messaging = new FakeFirebaseMessaging();
+        for (int i = 0; i < registrarCount; i++) {
+            AeroGearFCMPushRegistrar registrar = (AeroGearFCMPushRegistrar) new AeroGearFCMPushConfiguration()
+                    .setSenderId("sender-" + i)
+                    .setVariantID("variant-" + i)
+                    .setSecret("secret-" + i)
+                    .setCategories("load")
+                    .setPushServerURI(pushServerURI)
+                    .asRegistrar();
+            UnitTestUtils.setPrivateField(registrar, "firebaseInstanceIdProvider", instanceId);
+            UnitTestUtils.setPrivateField(registrar, "firebaseMessagingProvider", messaging);
+            registrars.add(registrar);
+        }
+    }
+
+    /**
+     * Runs operation once on every registrar and waits for all of them.
+     * Must be called on the main thread.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Report run(String name, Operation operation) throws Exception {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Map<String, Integer> failures = Collections.synchronizedMap(new TreeMap<String, Integer>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger succeeded = new AtomicInteger();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        long started = System.nanoTime();
+        int next = 0;
+        while (next < registrars.size() || inFlight.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException(name + " did not complete");
+            }
+            if (next < registrars.size() && inFlight.get() < concurrency) {
+                final long operationStarted = System.nanoTime();
+                inFlight.incrementAndGet();
+                operation.start(registrars.get(next), next).addOnCompleteListener(DIRECT, new OnCompleteListener() {
+                    @Override
+                    public void onComplete(Task task) {
+                        latency.record(System.nanoTime() - operationStarted);
+                        if (task.isSuccessful()) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            String failure = task.getException() == null ? "cancelled" : task.getException().getClass().getSimpleName();
+                            synchronized (failures) {
+                                Integer count = failures.get(failure);
+                                failures.put(failure, count == null ? 1 : count + 1);
+                            }
+                        }
+                        inFlight.decrementAndGet();
+                    }
+                });
+                next++;
+            } else {
+                ShadowLooper.idleMainLooper();
+                Thread.sleep(1);
+            }
+        }
+        ShadowLooper.idleMainLooper();
+
+        return new Report(name, registrars.size(), succeeded.get(), failures, System.nanoTime() - started, latency);
+    }
+
+    /**
+     * The outcome of one run.
+     */
+    public static final class Report {
+
+        public final String name;
+        public final int operations;
+        public final int succeeded;
+        public final Map<String, Integer> failures;
+        public final long elapsedNanos;
+        public final LatencyHistogram latency;
+
+        Report(String name, int operations, int succeeded, Map<String, Integer> failures, long elapsedNanos, LatencyHistogram latency) {
+            this.name = name;
+            this.operations = operations;
+            this.succeeded = succeeded;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        public double getThroughput() {
+            return operations / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d ops, %d succeeded, %.1f ops/s, p50=%dms p90=%dms p99=%dms, failures=%s",
+                    name, operations, succeeded, getThroughput(),
+                    latency.getPercentileMicros(50) / 1000,
+                    latency.getPercentileMicros(90) / 1000,
+                    latency.getPercentileMicros(99) / 1000,
+                    failures);
+        }
+
+    }
+
+}
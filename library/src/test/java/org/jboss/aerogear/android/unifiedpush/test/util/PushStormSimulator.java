@@ -0,0 +1,257 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.jboss.aerogear.android.unifiedpush.DeliveryLatencyStats;
+import org.jboss.aerogear.android.unifiedpush.MessageHandler;
+import org.jboss.aerogear.android.unifiedpush.MessageHandlerStats;
+import org.jboss.aerogear.android.unifiedpush.RegistrarManager;
+import org.jboss.aerogear.android.unifiedpush.fcm.AeroGearUPSMessageService;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Replays a stream of push messages into
+ * {@link AeroGearUPSMessageService#onMessageReceived(RemoteMessage)} at a
+ * fixed rate and measures how the receive path copes: dispatch
+ * throughput, per handler latency, threads and heap.
+ *
+ * Handlers are registered for the length of a run only. The simulator runs
+ * the main looper while it waits, so it must be called on the main thread.
+ */
+public class PushStormSimulator {
+
+    private static final String SENDER = "272275396485@gcm.googleapis.com";
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private final List<MessageHandler> backgroundHandlers = new ArrayList<>();
+    private final List<MessageHandler> mainThreadHandlers = new ArrayList<>();
+    private double messagesPerSecond = 1000;
+
+    public PushStormSimulator addBackgroundThreadHandler(MessageHandler handler) {
+        backgroundHandlers.add(handler);
+        return this;
+    }
+
+    public PushStormSimulator addMainThreadHandler(MessageHandler handler) {
+        mainThreadHandlers.add(handler);
+        return this;
+    }
+
+    public PushStormSimulator setRate(double messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+        return this;
+    }
+
+    /**
+     * @return count messages with a payload of about payloadSize characters
+     */
+    public static List<Map<String, String>> synthetic(int count, int payloadSize) {
+        StringBuilder payload = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+
+        List<Map<String, String>> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> data = new HashMap<>();
+            data.put("alert", "Storm message " + i);
+            data.put("aerogear-push-id", "storm-" + i);
+            data.put("payload", payload.toString());
+            messages.add(data);
+        }
+        return messages;
+    }
+
+    /**
+     * Reads recorded messages, one JSON object of message data per line.
+     */
+    public static List<Map<String, String>> recorded(String resource) throws IOException, JSONException {
+        InputStream in = PushStormSimulator.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException(resource + " not found");
+        }
+        List<Map<String, String>> messages = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JSONObject json = new JSONObject(line);
+                Map<String, String> data = new LinkedHashMap<>();
+                Iterator<String> keys = json.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    data.put(key, json.getString(key));
+                }
+                messages.add(data);
+            }
+        } finally {
+            reader.close();
+        }
+        return messages;
+    }
+
+    /**
+     * Feeds messages to the service at the configured rate and waits until
+     * every handler has handled every message.
+     */
+    public Report replay(List<Map<String, String>> messages) throws Exception {
+        AeroGearUPSMessageService service = Robolectric.setupService(AeroGearUPSMessageService.class);
+        List<RemoteMessage> remoteMessages = new ArrayList<>(messages.size());
+        for (Map<String, String> data : messages) {
+            remoteMessages.add(new RemoteMessage.Builder(SENDER).setData(data).build());
+        }
+
+        for (MessageHandler handler : backgroundHandlers) {
+            RegistrarManager.registerBackgroundThreadHandler(handler);
+        }
+        for (MessageHandler handler : mainThreadHandlers) {
+            RegistrarManager.registerMainThreadHandler(handler);
+        }
+
+        long heapBefore = usedHeap();
+        JvmStats.resetPeakThreadCount();
+        int threadsBefore = JvmStats.getThreadCount();
+        long handledBefore = RegistrarManager.getDeliveryLatencyStats().getReceiveToHandled().getCount();
+
+        try {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+            long started = System.nanoTime();
+            for (int i = 0; i < remoteMessages.size(); i++) {
+                long due = started + i * interval;
+                while (System.nanoTime() < due) {
+                    ShadowLooper.idleMainLooper();
+                }
+                service.onMessageReceived(remoteMessages.get(i));
+            }
+            long sent = System.nanoTime();
+
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (RegistrarManager.getDeliveryLatencyStats().getReceiveToHandled().getCount() - handledBefore < remoteMessages.size()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException("Messages were not handled");
+                }
+                ShadowLooper.idleMainLooper();
+                Thread.sleep(1);
+            }
+            long handled = System.nanoTime();
+
+            Map<String, MessageHandlerStats> handlerStats = new LinkedHashMap<>();
+            List<MessageHandler> handlers = new ArrayList<>(backgroundHandlers);
+            handlers.addAll(mainThreadHandlers);
+            for (MessageHandler handler : handlers) {
+                String name = handler.getClass().getName();
+                for (MessageHandlerStats stats : RegistrarManager.getMessageHandlerStats()) {
+                    if (stats.getHandlerName().equals(name)) {
+                        handlerStats.put(name, stats);
+                    }
+                }
+            }
+
+            return new Report(remoteMessages.size(), sent - started, handled - started, handlerStats,
+                    RegistrarManager.getDeliveryLatencyStats(), threadsBefore, JvmStats.getPeakThreadCount(),
+                    usedHeap() - heapBefore);
+        } finally {
+            for (MessageHandler handler : backgroundHandlers) {
+                RegistrarManager.unregisterBackgroundThreadHandler(handler);
+            }
+            for (MessageHandler handler : mainThreadHandlers) {
+                RegistrarManager.unregisterMainThreadHandler(handler);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * What a replay measured. Handler stats are cumulative for the process,
+     * so every handler class should only be used by one replay.
+     */
+    public static final class Report {
+
+        public final int messages;
+        public final long sendNanos;
+        public final long handledNanos;
+        public final Map<String, MessageHandlerStats> handlers;
+        public final DeliveryLatencyStats delivery;
+        public final int threadsBefore;
+        public final int peakThreads;
+        public final long heapGrowth;
+
+        Report(int messages, long sendNanos, long handledNanos, Map<String, MessageHandlerStats> handlers,
+                DeliveryLatencyStats delivery, int threadsBefore, int peakThreads, long heapGrowth) {
+            this.messages = messages;
+            this.sendNanos = sendNanos;
+            this.handledNanos = handledNanos;
+            this.handlers = handlers;
+            this.delivery = delivery;
+            this.threadsBefore = threadsBefore;
+            this.peakThreads = peakThreads;
+            this.heapGrowth = heapGrowth;
+        }
+
+        /**
+         * @return messages fully handled per second
+         */
+        public double getThroughput() {
+            return messages / (handledNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(Locale.US,
+                    "%d messages, %.1f msg/s handled, threads %d -> peak %d, heap growth %d KiB",
+                    messages, getThroughput(), threadsBefore, peakThreads, heapGrowth / 1024));
+            for (Map.Entry<String, MessageHandlerStats> entry : handlers.entrySet()) {
+                MessageHandlerStats stats = entry.getValue();
+                report.append(String.format(Locale.US, "%n  %s: %d handled, p50=%dms p99=%dms",
+                        entry.getKey(), stats.getInvocations(),
+                        stats.getLatency().getPercentileMicros(50) / 1000,
+                        stats.getLatency().getPercentileMicros(99) / 1000));
+            }
+            return report.toString();
+        }
+
+    }
+
+}
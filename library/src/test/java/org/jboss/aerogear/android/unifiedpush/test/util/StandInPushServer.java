@@ -0,0 +1,241 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A UnifiedPush Server stand in listening on localhost which serves
+ * /rest/registry/device and /rest/registry/device/pushMessage over real
+ * HTTP, and misbehaves on command: it can be slow, fail, redirect or
+ * throttle a share of the requests.
+ *
+ * Devices are kept per variant, the variant being the user of the request's
+ * basic authentication.
+ */
+public class StandInPushServer implements Closeable {
+
+    private static final String REGISTRY = "/rest/registry/device";
+    private static final String METRICS = REGISTRY + "/pushMessage";
+    private static final String REDIRECTED = "?redirected";
+
+    private final MockWebServer server = new MockWebServer();
+    private final Random random = new Random();
+
+    private final ConcurrentMap<String, String> devices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> openedMessages = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicInteger redirected = new AtomicInteger();
+
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double errorRate;
+    private volatile double redirectRate;
+    private volatile double throttleRate;
+    private volatile int retryAfterSeconds;
+
+    private StandInPushServer() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                try {
+                    return serve(request);
+                } catch (IOException | JSONException ex) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a server on a free port.
+     */
+    public static StandInPushServer start() throws IOException {
+        StandInPushServer standIn = new StandInPushServer();
+        standIn.server.start();
+        return standIn;
+    }
+
+    /**
+     * @return the push server URI to configure registrars with
+     */
+    public URI getURI() {
+        return server.url("").uri();
+    }
+
+    /**
+     * Delays every response by a random time between min and max.
+     */
+    public StandInPushServer setLatency(long min, long max, TimeUnit unit) {
+        minLatency = unit.toMillis(min);
+        maxLatency = unit.toMillis(max);
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests with 500.
+     */
+    public StandInPushServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests with a 307 back to the same
+     * resource.
+     */
+    public StandInPushServer setRedirectRate(double redirectRate) {
+        this.redirectRate = redirectRate;
+        return this;
+    }
+
+    /**
+     * Answers the given share of requests with 429 and a Retry-After header.
+     */
+    public StandInPushServer setThrottleRate(double throttleRate, int retryAfterSeconds) {
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @return the token registered for the variant or null
+     */
+    public String getToken(String variantId) {
+        return devices.get(variantId);
+    }
+
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    public int getOpenedMessageCount() {
+        return openedMessages.size();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    public int getThrottledCount() {
+        return throttled.get();
+    }
+
+    public int getRedirectCount() {
+        return redirected.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    private MockResponse serve(RecordedRequest request) throws IOException, InterruptedException, JSONException {
+        requests.incrementAndGet();
+        String body = read(request);
+
+        long latency = minLatency + (maxLatency > minLatency ? (long) (random.nextDouble() * (maxLatency - minLatency)) : 0);
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+
+        String path = request.getPath();
+        double dice = random.nextDouble();
+        if (dice < throttleRate) {
+            throttled.incrementAndGet();
+            return new MockResponse().setResponseCode(429).setHeader("Retry-After", retryAfterSeconds);
+        }
+        dice -= throttleRate;
+        if (dice < errorRate) {
+            errors.incrementAndGet();
+            return new MockResponse().setResponseCode(500);
+        }
+        dice -= errorRate;
+        if (dice < redirectRate && !path.endsWith(REDIRECTED)) {
+            redirected.incrementAndGet();
+            return new MockResponse().setResponseCode(307).setHeader("Location", server.url(path + REDIRECTED));
+        }
+        if (path.endsWith(REDIRECTED)) {
+            path = path.substring(0, path.length() - REDIRECTED.length());
+        }
+
+        String variantId = variantOf(request);
+        String method = request.getMethod();
+        if ("POST".equals(method) && path.equals(REGISTRY)) {
+            devices.put(variantId, new JSONObject(body).getString("deviceToken"));
+            return new MockResponse().setResponseCode(200);
+        } else if ("PUT".equals(method) && path.startsWith(METRICS + "/")) {
+            openedMessages.put(variantId + ":" + path.substring(METRICS.length() + 1), true);
+            return new MockResponse().setResponseCode(200);
+        } else if ("DELETE".equals(method) && path.startsWith(REGISTRY + "/")) {
+            return new MockResponse().setResponseCode(devices.remove(variantId) == null ? 404 : 204);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private static String variantOf(RecordedRequest request) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            return "";
+        }
+        String credentials = new String(Base64.decode(authorization.substring(6), Base64.DEFAULT), StandardCharsets.UTF_8);
+        int colon = credentials.indexOf(':');
+        return colon < 0 ? credentials : credentials.substring(0, colon);
+    }
+
+    private static String read(RecordedRequest request) throws IOException {
+        InputStream in = request.getBody().inputStream();
+        if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
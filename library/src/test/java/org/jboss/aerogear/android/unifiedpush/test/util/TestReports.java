@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes what load and budget tests measured to
+ * build/reports/aerogear/&lt;name&gt;.txt, so runs can be compared without
+ * digging through the test output.
+ */
+public final class TestReports {
+
+    private static final File DIRECTORY = new File("build/reports/aerogear");
+
+    private TestReports() {
+    }
+
+    /**
+     * @param name the name of the report file, without extension
+     * @param lines what was measured, one line each
+     * @return the report file
+     */
+    public static File write(String name, Object... lines) throws IOException {
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            throw new IOException("Could not create " + DIRECTORY);
+        }
+        File report = new File(DIRECTORY, name + ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8);
+        try {
+            for (Object line : lines) {
+                writer.write(String.valueOf(line));
+                writer.write(System.lineSeparator());
+            }
+        } finally {
+            writer.close();
+        }
+        return report;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.test.util;
+
+import com.google.android.gms.tasks.Task;
+
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class UnitTestUtils {
+
+    private static final long AWAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    public static void setPrivateField(Object target, String fieldName, Object value)
+            throws NoSuchFieldException, IllegalAccessException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException ignore) {
+                // look in the superclass
+            }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+
+    public static Object getPrivateField(Object target, String fieldName)
+            throws NoSuchFieldException, IllegalAccessException {
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    /**
+     * Drops the FCM token shared by every registrar, so a test starts
+     * without one.
+     */
+    public static void resetTokenCache() throws Exception {
+        Method invalidate = Class.forName("org.jboss.aerogear.android.unifiedpush.fcm.FCMTokenCache")
+                .getDeclaredMethod("invalidate");
+        invalidate.setAccessible(true);
+        invalidate.invoke(null);
+    }
+
+    /**
+     * Waits for a task on the main thread, running the main looper so the
+     * listeners the task depends on are called. Tasks.await can not be used
+     * because Robolectric runs tests on the main thread.
+     */
+    public static <T> T await(Task<T> task) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!task.isComplete()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("Task did not complete");
+            }
+            ShadowLooper.idleMainLooper();
+            Thread.sleep(1);
+        }
+        ShadowLooper.idleMainLooper();
+
+        if (task.isSuccessful()) {
+            return task.getResult();
+        }
+        if (task.getException() != null) {
+            throw task.getException();
+        }
+        throw new ExecutionException("Task was cancelled", null);
+    }
+
+}
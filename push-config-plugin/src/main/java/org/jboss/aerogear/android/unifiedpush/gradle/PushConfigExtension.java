@@ -0,0 +1,155 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.gradle;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>pushConfig { }</code> block of the push-config plugin.
+ *
+ * <pre>
+ * pushConfig {
+ *     variant 'production'
+ *     variants free: 'free', paid: 'paid', paidDebug: 'staging'
+ * }
+ * </pre>
+ */
+public class PushConfigExtension {
+
+    private String fileName = "push-config.json";
+    private String variant;
+    private final Map<String, String> variants = new LinkedHashMap<>();
+    private String packageName;
+    private String className = "PushConfig";
+
+    /**
+     * The name of the file in assets which holds the push configuration.
+     * Defaults to push-config.json
+     *
+     * @return the current file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * The name of the configuration to generate when the file holds many in
+     * a "variants" object. Leave it unset for files holding a single
+     * configuration.
+     *
+     * @return the current variant name or null
+     */
+    public String getVariant() {
+        return variant;
+    }
+
+    public void setVariant(String variant) {
+        this.variant = variant;
+    }
+
+    /**
+     * The configuration to generate per build variant, product flavor or
+     * build type, for files holding many in a "variants" object. Build
+     * variants not matched here use {@link #getVariant()}.
+     *
+     * @return the configuration names, keyed by build variant, flavor or
+     *         build type name
+     */
+    public Map<String, String> getVariants() {
+        return variants;
+    }
+
+    public void setVariants(Map<String, String> variants) {
+        this.variants.clear();
+        this.variants.putAll(variants);
+    }
+
+    /**
+     * Adds configuration names per build variant, product flavor or build
+     * type.
+     *
+     * @param variants the configuration names to add
+     */
+    public void variants(Map<String, String> variants) {
+        this.variants.putAll(variants);
+    }
+
+    /**
+     * Picks the configuration of a build variant. The full variant name is
+     * looked up first, then the combined flavor name, then each product
+     * flavor in order, then the build type, and finally {@link #getVariant()}.
+     *
+     * @param variantName the name of the build variant, e.g. paidDebug
+     * @param flavorName the combined name of its flavors, e.g. paid, may be
+     *            empty
+     * @param productFlavors the names of its flavors
+     * @param buildType the name of its build type, may be null
+     * @return the configuration name to generate, or null for files holding
+     *         a single configuration
+     */
+    public String variantFor(String variantName, String flavorName, List<String> productFlavors, String buildType) {
+        if (variants.containsKey(variantName)) {
+            return variants.get(variantName);
+        }
+        if (flavorName != null && variants.containsKey(flavorName)) {
+            return variants.get(flavorName);
+        }
+        for (String flavor : productFlavors) {
+            if (variants.containsKey(flavor)) {
+                return variants.get(flavor);
+            }
+        }
+        if (buildType != null && variants.containsKey(buildType)) {
+            return variants.get(buildType);
+        }
+        return variant;
+    }
+
+    /**
+     * The package of the generated class. Defaults to the package of the
+     * variant's BuildConfig.
+     *
+     * @return the current package name or null
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
+    /**
+     * The simple name of the generated class. Defaults to PushConfig
+     *
+     * @return the current class name
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+}
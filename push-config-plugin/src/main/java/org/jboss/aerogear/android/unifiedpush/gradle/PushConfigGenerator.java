@@ -0,0 +1,214 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.gradle;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+/**
+ * Turns the contents of a push-config.json file into the Java source of a
+ * class implementing
+ * <code>org.jboss.aerogear.android.unifiedpush.fcm.PushConfigValues</code>.
+ *
+ * The file is validated the same way
+ * <code>AeroGearFCMPushJsonConfiguration.loadConfigJson</code> validates it
+ * at runtime, so a broken file fails the build instead of the app.
+ *
+ * Files holding many named configurations in a "variants" object, as read by
+ * <code>PushConfigLoader</code>, are supported too. The configuration to
+ * generate has to be named, and it may override the top level pushServerURL.
+ */
+public final class PushConfigGenerator {
+
+    private static final String JSON_VARIANTS = "variants";
+    private static final String JSON_OBJECT = "android";
+    private static final String JSON_URL = "pushServerURL";
+    private static final String JSON_SENDER_ID = "senderID";
+    private static final String JSON_VARIANT_ID = "variantID";
+    private static final String JSON_VARIANT_SECRET = "variantSecret";
+
+    private static final String VALUES_INTERFACE = "org.jboss.aerogear.android.unifiedpush.fcm.PushConfigValues";
+
+    private PushConfigGenerator() {
+    }
+
+    /**
+     * @param fileName the name of the file, used in error messages
+     * @param json the contents of the file
+     * @param packageName the package of the generated class
+     * @param className the simple name of the generated class
+     *
+     * @return the Java source of the generated class
+     *
+     * @throws IllegalArgumentException if the file is not a valid push
+     *             configuration or holds many named configurations
+     */
+    public static String generate(String fileName, String json, String packageName, String className) {
+        return generate(fileName, json, null, packageName, className);
+    }
+
+    /**
+     * @param fileName the name of the file, used in error messages
+     * @param json the contents of the file
+     * @param variantName the name of a configuration in the "variants" object
+     *            or null if the file holds a single configuration
+     * @param packageName the package of the generated class
+     * @param className the simple name of the generated class
+     *
+     * @return the Java source of the generated class
+     *
+     * @throws IllegalArgumentException if the file is not a valid push
+     *             configuration or variantName does not match its layout
+     */
+    public static String generate(String fileName, String json, String variantName, String packageName, String className) {
+        JsonObject pushConfig;
+        try {
+            JsonElement root = new JsonParser().parse(json);
+            if (!root.isJsonObject()) {
+                throw new IllegalArgumentException("An error occurred while parsing the " + fileName + ". Please check the file format");
+            }
+            pushConfig = root.getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("An error occurred while parsing the " + fileName + ". Please check the file format", e);
+        }
+
+        JsonObject config = pushConfig;
+        String pushServerURL;
+        JsonElement variants = pushConfig.get(JSON_VARIANTS);
+        if (variants != null && variants.isJsonObject()) {
+            if (variantName == null) {
+                throw new IllegalArgumentException(fileName + " holds the configurations " + names(variants.getAsJsonObject())
+                        + ". Set the variant or variants of the pushConfig block to the one to build with");
+            }
+            JsonElement variant = variants.getAsJsonObject().get(variantName);
+            if (variant == null || !variant.isJsonObject()) {
+                throw new IllegalArgumentException("There is no variant named " + variantName + " in " + fileName);
+            }
+            config = variant.getAsJsonObject();
+            pushServerURL = config.has(JSON_URL)
+                    ? requireString(fileName, config, JSON_URL)
+                    : requireString(fileName, pushConfig, JSON_URL);
+        } else {
+            if (variantName != null) {
+                throw new IllegalArgumentException(fileName + " has no \"" + JSON_VARIANTS + "\" object, so it has no variant named " + variantName);
+            }
+            pushServerURL = requireString(fileName, pushConfig, JSON_URL);
+        }
+
+        JsonElement android = config.get(JSON_OBJECT);
+        if (android == null || !android.isJsonObject()) {
+            throw new IllegalArgumentException(fileName + " has no \"" + JSON_OBJECT + "\" object"
+                    + (variantName == null ? "" : " in variant " + variantName));
+        }
+
+        String senderID = requireString(fileName, android.getAsJsonObject(), JSON_SENDER_ID);
+        String variantID = requireString(fileName, android.getAsJsonObject(), JSON_VARIANT_ID);
+        String variantSecret = requireString(fileName, android.getAsJsonObject(), JSON_VARIANT_SECRET);
+
+        try {
+            new URI(pushServerURL);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(JSON_URL + " in " + fileName + " is not a valid URI", e);
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by the aerogear push-config plugin from ").append(fileName).append(". Do not edit.\n");
+        if (packageName != null && !packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("public final class ").append(className).append(" implements ").append(VALUES_INTERFACE).append(" {\n\n");
+        appendConstant(source, "PUSH_SERVER_URL", pushServerURL);
+        appendConstant(source, "SENDER_ID", senderID);
+        appendConstant(source, "VARIANT_ID", variantID);
+        appendConstant(source, "VARIANT_SECRET", variantSecret);
+        source.append("\n    public static final ").append(className).append(" INSTANCE = new ").append(className).append("();\n\n");
+        source.append("    private ").append(className).append("() {\n    }\n\n");
+        appendGetter(source, "getPushServerURL", "PUSH_SERVER_URL");
+        appendGetter(source, "getSenderID", "SENDER_ID");
+        appendGetter(source, "getVariantID", "VARIANT_ID");
+        appendGetter(source, "getVariantSecret", "VARIANT_SECRET");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static String names(JsonObject variants) {
+        StringBuilder names = new StringBuilder();
+        for (Map.Entry<String, JsonElement> variant : variants.entrySet()) {
+            names.append(names.length() == 0 ? "" : ", ").append(variant.getKey());
+        }
+        return names.toString();
+    }
+
+    private static String requireString(String fileName, JsonObject object, String key) {
+        JsonElement value = object.get(key);
+        if (value == null || value.isJsonNull() || !value.isJsonPrimitive() || value.getAsString().isEmpty()) {
+            throw new IllegalArgumentException(key + " is missing from " + fileName);
+        }
+        return value.getAsString();
+    }
+
+    private static void appendConstant(StringBuilder source, String name, String value) {
+        source.append("    public static final String ").append(name).append(" = ");
+        appendLiteral(source, value);
+        source.append(";\n");
+    }
+
+    private static void appendGetter(StringBuilder source, String method, String constant) {
+        source.append("    @Override\n")
+                .append("    public String ").append(method).append("() {\n")
+                .append("        return ").append(constant).append(";\n")
+                .append("    }\n\n");
+    }
+
+    static void appendLiteral(StringBuilder source, String value) {
+        source.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    source.append("\\\"");
+                    break;
+                case '\\':
+                    source.append("\\\\");
+                    break;
+                case '\n':
+                    source.append("\\n");
+                    break;
+                case '\r':
+                    source.append("\\r");
+                    break;
+                case '\t':
+                    source.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        source.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        source.append(c);
+                    }
+            }
+        }
+        source.append('"');
+    }
+
+}
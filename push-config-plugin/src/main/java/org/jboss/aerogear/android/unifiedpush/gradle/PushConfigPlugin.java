@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.gradle;
+
+import com.android.build.gradle.AppExtension;
+import com.android.build.gradle.AppPlugin;
+import com.android.build.gradle.api.ApplicationVariant;
+import com.android.builder.model.ProductFlavor;
+import com.android.builder.model.SourceProvider;
+
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads push-config.json while building an Android application and generates
+ * a class implementing
+ * <code>org.jboss.aerogear.android.unifiedpush.fcm.PushConfigValues</code>
+ * for every build variant.
+ *
+ * The file is looked up in the assets directories of the variant, so a
+ * flavor or build type may override the one in src/main/assets the same way
+ * it would at runtime. Files holding many configurations in a "variants"
+ * object can map build variants, flavors or build types to them with
+ * {@link PushConfigExtension#variants(java.util.Map)}.
+ *
+ * <pre>
+ * apply plugin: 'org.jboss.aerogear.push-config'
+ *
+ * RegistrarManager.config("register", PushConfig.INSTANCE).asRegistrar();
+ * </pre>
+ */
+public class PushConfigPlugin implements Plugin<Project> {
+
+    private static final String EXTENSION_NAME = "pushConfig";
+
+    @Override
+    public void apply(final Project project) {
+        final PushConfigExtension extension = project.getExtensions()
+                .create(EXTENSION_NAME, PushConfigExtension.class);
+
+        project.getPlugins().withType(AppPlugin.class, new Action<AppPlugin>() {
+            @Override
+            public void execute(AppPlugin appPlugin) {
+                AppExtension android = project.getExtensions().getByType(AppExtension.class);
+                android.getApplicationVariants().all(new Action<ApplicationVariant>() {
+                    @Override
+                    public void execute(ApplicationVariant variant) {
+                        registerTask(project, extension, variant);
+                    }
+                });
+            }
+        });
+
+        project.afterEvaluate(new Action<Project>() {
+            @Override
+            public void execute(Project evaluated) {
+                if (!evaluated.getPlugins().hasPlugin(AppPlugin.class)) {
+                    throw new GradleException("The push-config plugin requires the com.android.application plugin");
+                }
+            }
+        });
+    }
+
+    private void registerTask(Project project, PushConfigExtension extension, ApplicationVariant variant) {
+        String taskName = "generate" + capitalize(variant.getName()) + "PushConfig";
+        File outputDir = new File(project.getBuildDir(), "generated/source/pushConfig/" + variant.getDirName());
+
+        String packageName = extension.getPackageName();
+        if (packageName == null) {
+            packageName = variant.getGenerateBuildConfigProvider().get().getBuildConfigPackageName();
+        }
+
+        GeneratePushConfigTask task = project.getTasks().create(taskName, GeneratePushConfigTask.class);
+        task.setConfigFile(findConfigFile(variant.getSourceSets(), extension.getFileName()));
+        List<String> flavors = new ArrayList<>();
+        for (ProductFlavor flavor : variant.getProductFlavors()) {
+            flavors.add(flavor.getName());
+        }
+        task.setVariantName(extension.variantFor(variant.getName(), variant.getFlavorName(), flavors,
+                variant.getBuildType().getName()));
+        task.setPackageName(packageName);
+        task.setClassName(extension.getClassName());
+        task.setOutputDir(outputDir);
+
+        variant.registerJavaGeneratingTask(task, outputDir);
+    }
+
+    /**
+     * Source sets are ordered from lowest to highest priority, so the last
+     * match wins.
+     */
+    private static File findConfigFile(List<SourceProvider> sourceSets, String fileName) {
+        for (int i = sourceSets.size() - 1; i >= 0; i--) {
+            for (File assets : sourceSets.get(i).getAssetsDirectories()) {
+                File candidate = new File(assets, fileName);
+                if (candidate.isFile()) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+}
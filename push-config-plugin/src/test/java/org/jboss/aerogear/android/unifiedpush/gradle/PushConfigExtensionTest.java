@@ -0,0 +1,77 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.gradle;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PushConfigExtensionTest {
+
+    private static final String VARIANTS_CONFIG = "{\n"
+            + "  \"pushServerURL\": \"https://localhost:8080/ag-push\",\n"
+            + "  \"variants\": {\n"
+            + "    \"free\": {\n"
+            + "      \"android\": { \"senderID\": \"1\", \"variantID\": \"free-id\", \"variantSecret\": \"free-secret\" }\n"
+            + "    },\n"
+            + "    \"paid\": {\n"
+            + "      \"android\": { \"senderID\": \"2\", \"variantID\": \"paid-id\", \"variantSecret\": \"paid-secret\" }\n"
+            + "    }\n"
+            + "  }\n"
+            + "}";
+
+    @Test
+    public void testFlavorsPickTheirOwnConfiguration() {
+        PushConfigExtension extension = new PushConfigExtension();
+        Map<String, String> variants = new HashMap<>();
+        variants.put("free", "free");
+        variants.put("paid", "paid");
+        extension.variants(variants);
+
+        String free = extension.variantFor("freeDebug", "free", Collections.singletonList("free"), "debug");
+        String paid = extension.variantFor("paidRelease", "paid", Collections.singletonList("paid"), "release");
+
+        Assert.assertEquals("free", free);
+        Assert.assertEquals("paid", paid);
+        Assert.assertTrue(PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, free, "com.example", "PushConfig")
+                .contains("VARIANT_ID = \"free-id\";"));
+        Assert.assertTrue(PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, paid, "com.example", "PushConfig")
+                .contains("VARIANT_ID = \"paid-id\";"));
+    }
+
+    @Test
+    public void testMostSpecificNameWins() {
+        PushConfigExtension extension = new PushConfigExtension();
+        extension.setVariant("fallback");
+        Map<String, String> variants = new HashMap<>();
+        variants.put("paidDebug", "staging");
+        variants.put("blue", "blue");
+        variants.put("paid", "paid");
+        variants.put("release", "release");
+        extension.variants(variants);
+
+        Assert.assertEquals("staging", extension.variantFor("paidDebug", "paid", Arrays.asList("paid"), "debug"));
+        Assert.assertEquals("blue", extension.variantFor("freeBlueDebug", "freeBlue", Arrays.asList("free", "blue"), "debug"));
+        Assert.assertEquals("release", extension.variantFor("freeRedRelease", "freeRed", Arrays.asList("free", "red"), "release"));
+        Assert.assertEquals("fallback", extension.variantFor("freeRedDebug", "freeRed", Arrays.asList("free", "red"), "debug"));
+    }
+
+}
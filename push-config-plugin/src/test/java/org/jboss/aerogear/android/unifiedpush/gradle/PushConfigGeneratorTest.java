@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.android.unifiedpush.gradle;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PushConfigGeneratorTest {
+
+    private static final String CORRECT_CONFIG = "{\n"
+            + "  \"pushServerURL\": \"https://localhost:8080/ag-push\",\n"
+            + "  \"android\": {\n"
+            + "    \"senderID\": \"123456\",\n"
+            + "    \"variantID\": \"8abfae4eb02a6140c0a20798433180a063fd7006\",\n"
+            + "    \"variantSecret\": \"5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8\"\n"
+            + "  }\n"
+            + "}";
+
+    private static final String WRONG_FORMAT = "{\n"
+            + "  \"pushServerURL\": \"https://localhost:8080/ag-push\",\n"
+            + "  \"senderID\": \"123456\",\n"
+            + "  \"variantID\": \"8abfae4eb02a6140c0a20798433180a063fd7006\",\n"
+            + "  \"variantSecret\": \"5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8\"\n"
+            + "}";
+
+    private static final String VARIANTS_CONFIG = "{\n"
+            + "  \"pushServerURL\": \"https://localhost:8080/ag-push\",\n"
+            + "  \"variants\": {\n"
+            + "    \"production\": {\n"
+            + "      \"android\": { \"senderID\": \"1\", \"variantID\": \"production-id\", \"variantSecret\": \"production-secret\" }\n"
+            + "    },\n"
+            + "    \"staging\": {\n"
+            + "      \"pushServerURL\": \"https://staging:8080/ag-push\",\n"
+            + "      \"android\": { \"senderID\": \"2\", \"variantID\": \"staging-id\", \"variantSecret\": \"staging-secret\" }\n"
+            + "    }\n"
+            + "  }\n"
+            + "}";
+
+    @Test
+    public void testGeneratesConstants() {
+        String source = PushConfigGenerator.generate("push-config.json", CORRECT_CONFIG, "com.example", "PushConfig");
+
+        Assert.assertTrue(source.contains("package com.example;"));
+        Assert.assertTrue(source.contains("public final class PushConfig implements org.jboss.aerogear.android.unifiedpush.fcm.PushConfigValues"));
+        Assert.assertTrue(source.contains("PUSH_SERVER_URL = \"https://localhost:8080/ag-push\";"));
+        Assert.assertTrue(source.contains("SENDER_ID = \"123456\";"));
+        Assert.assertTrue(source.contains("VARIANT_ID = \"8abfae4eb02a6140c0a20798433180a063fd7006\";"));
+        Assert.assertTrue(source.contains("VARIANT_SECRET = \"5baa61e4c9b93f3f0682250b6cf8331b7ee68fd8\";"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongFormatFails() {
+        PushConfigGenerator.generate("wrong-format.json", WRONG_FORMAT, "com.example", "PushConfig");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyFileFails() {
+        PushConfigGenerator.generate("empty-file.json", "", "com.example", "PushConfig");
+    }
+
+    @Test
+    public void testGeneratesNamedVariant() {
+        String production = PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, "production", "com.example", "PushConfig");
+        String staging = PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, "staging", "com.example", "PushConfig");
+
+        Assert.assertTrue(production.contains("PUSH_SERVER_URL = \"https://localhost:8080/ag-push\";"));
+        Assert.assertTrue(production.contains("VARIANT_ID = \"production-id\";"));
+        Assert.assertTrue(staging.contains("PUSH_SERVER_URL = \"https://staging:8080/ag-push\";"));
+        Assert.assertTrue(staging.contains("VARIANT_SECRET = \"staging-secret\";"));
+    }
+
+    @Test
+    public void testVariantsWithoutNameFail() {
+        try {
+            PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, "com.example", "PushConfig");
+            Assert.fail("A file with many configurations needs a variant name");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("production, staging"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVariantFails() {
+        PushConfigGenerator.generate("push-config.json", VARIANTS_CONFIG, "qa", "com.example", "PushConfig");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariantOfSingleConfigurationFails() {
+        PushConfigGenerator.generate("push-config.json", CORRECT_CONFIG, "production", "com.example", "PushConfig");
+    }
+
+    @Test
+    public void testLiteralsAreEscaped() {
+        StringBuilder literal = new StringBuilder();
+        PushConfigGenerator.appendLiteral(literal, "a\"b\\c\n\u00e9");
+
+        Assert.assertEquals("\"a\\\"b\\\\c\\n\\u00e9\"", literal.toString());
+    }
+
+}